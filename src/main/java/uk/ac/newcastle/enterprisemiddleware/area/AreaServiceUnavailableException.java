@@ -0,0 +1,24 @@
+package uk.ac.newcastle.enterprisemiddleware.area;
+
+/**
+ * <p>RuntimeException which should be thrown if an area code cannot be resolved because the upstream AreaService is
+ * slow or unavailable, and there is no previously known value to fall back to.</p>
+ *
+ * <p>In such cases the ClientResponse status should be 503 SERVICE_UNAVAILABLE.</p>
+ *
+ * @see CachedAreaService
+ */
+public class AreaServiceUnavailableException extends RuntimeException {
+
+    public AreaServiceUnavailableException(Throwable cause) {
+        super(cause);
+    }
+
+    public AreaServiceUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public AreaServiceUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,86 @@
+package uk.ac.newcastle.enterprisemiddleware.area;
+
+import io.quarkus.scheduler.Scheduled;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.List;
+
+/**
+ * <p>In-memory copy of the complete US area code list, pulled in bulk from {@link AreaService#getAreas()}.</p>
+ *
+ * <p>Area codes are three digit numbers between {@link #MIN_CODE} and {@link #MAX_CODE}, so the table is a plain array
+ * indexed by <code>code - MIN_CODE</code>. Lookups are a bounds check and an array read, and allocate nothing.</p>
+ *
+ * <p>The table is loaded shortly after startup and refreshed on the schedule given by
+ * <code>area.preload.refresh-interval</code>. Refreshes run on the scheduler thread and replace the whole array in one
+ * write, so a slow or failing upstream never blocks a lookup; the previous table simply stays in use.</p>
+ *
+ * @see CachedAreaService
+ */
+@ApplicationScoped
+public class AreaTable {
+
+    public static final int MIN_CODE = 200;
+    public static final int MAX_CODE = 989;
+
+    @Inject
+    @Named("logger")
+    Log log;
+
+    @RestClient
+    AreaService areaService;
+
+    private volatile Area[] areas;
+
+    /**
+     * <p>Returns the Area with the given code, or null if the table has not been loaded or does not contain it.</p>
+     *
+     * @param code The 3 digit US area code
+     * @return The Area for the code; or null
+     */
+    public Area get(int code) {
+        Area[] table = areas;
+        if (table == null || code < MIN_CODE || code > MAX_CODE) {
+            return null;
+        }
+        return table[code - MIN_CODE];
+    }
+
+    /**
+     * @return true once the table has been loaded successfully at least once
+     */
+    public boolean isLoaded() {
+        return areas != null;
+    }
+
+    /**
+     * <p>Pulls the full area code list from the upstream service and swaps it in.</p>
+     *
+     * <p>If the upstream call fails the current table is kept and the failure is logged.</p>
+     */
+    @Scheduled(every = "{area.preload.refresh-interval}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void refresh() {
+        List<Area> upstream;
+        try {
+            upstream = areaService.getAreas();
+        } catch (RuntimeException e) {
+            log.warning("AreaTable.refresh() - Could not load area codes, keeping the current table", e);
+            return;
+        }
+
+        Area[] table = new Area[MAX_CODE - MIN_CODE + 1];
+        int loaded = 0;
+        for (Area area : upstream) {
+            if (area.getId() >= MIN_CODE && area.getId() <= MAX_CODE) {
+                table[area.getId() - MIN_CODE] = area;
+                loaded++;
+            }
+        }
+        areas = table;
+        log.info("AreaTable.refresh() - Loaded {} area codes", loaded);
+    }
+}
@@ -0,0 +1,228 @@
+package uk.ac.newcastle.enterprisemiddleware.area;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Bounded, time limited cache sitting in front of the upstream area-api.</p>
+ *
+ * <p>Lookups come in a blocking flavour, {@link #getAreaById(int)}, and a non-blocking one,
+ * {@link #getAreaByIdAsync(int)}. Both share the same caches and in-flight lookups.</p>
+ *
+ * <p>There are only a few hundred US area codes and they practically never change, so there is no reason for every
+ * Contact write to pay for a round trip to the upstream API. Only cache misses are forwarded to the upstream, through
+ * the timeout and circuit breaker of {@link GuardedAreaService}; everything else is answered from memory.</p>
+ *
+ * <p>Codes found in the preloaded {@link AreaTable} are served straight from its array; the cache only has to hold
+ * codes looked up before the table is first loaded or that are missing from it.</p>
+ *
+ * <p>Concurrent lookups of the same uncached code are coalesced: the first caller starts the upstream request and
+ * every other caller waits on the same in-flight result, so a burst of writes for one area code costs a single remote
+ * call. Failed lookups are not cached and are retried by the next caller.</p>
+ *
+ * <p>Codes the upstream answers with 404 NOT_FOUND are remembered in a separate negative cache with a shorter
+ * time-to-live, so clients repeatedly sending a non-existent area code are rejected locally instead of hammering the
+ * upstream API.</p>
+ *
+ * <p>If the upstream is slow, failing or its circuit is open, the last Area ever received for the code is served
+ * instead, even if its cache entry has expired. Only a code that has never been resolved fails, with an
+ * {@link AreaServiceUnavailableException}.</p>
+ *
+ * <p>The size and time-to-live of the caches are configured with the <code>area.cache.*</code> properties in
+ * application.properties. Hit, miss and eviction counters are available through {@link #stats()} and
+ * {@link #unknownStats()}.</p>
+ *
+ * @see AreaService
+ * @see GuardedAreaService
+ */
+@ApplicationScoped
+public class CachedAreaService {
+
+    @Inject
+    @Named("logger")
+    Log log;
+
+    @Inject
+    AreaTable areaTable;
+
+    @Inject
+    GuardedAreaService guardedAreaService;
+
+    @ConfigProperty(name = "area.cache.max-size", defaultValue = "1000")
+    long maxSize;
+
+    @ConfigProperty(name = "area.cache.ttl", defaultValue = "PT1H")
+    Duration ttl;
+
+    @ConfigProperty(name = "area.cache.negative-ttl", defaultValue = "PT5M")
+    Duration negativeTtl;
+
+    private AsyncCache<Integer, Area> areas;
+
+    private Cache<Integer, Boolean> unknownAreas;
+
+    // Last Area received for each code, kept regardless of expiry so it can be served while the upstream is down.
+    // There are fewer than a thousand possible area codes, so this stays small.
+    private final Map<Integer, Area> lastKnown = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        areas = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+        unknownAreas = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(negativeTtl)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * <p>Returns the Area with the given id, asking the upstream service only if it is neither in the preloaded
+     * {@link AreaTable} nor already cached, and has not recently been reported as unknown.</p>
+     *
+     * <p>This blocks the calling thread until the Area is available, so it must not be called from an I/O thread; use
+     * {@link #getAreaByIdAsync(int)} there instead.</p>
+     *
+     * @param id The 3 digit US area code
+     * @return The Area for the given area code
+     * @throws InvalidAreaCodeException If the area code does not exist
+     * @throws AreaServiceUnavailableException If the upstream cannot be reached and the code has never been resolved
+     */
+    public Area getAreaById(int id) {
+        Area area = areaTable.get(id);
+        if (area != null) {
+            return area;
+        }
+        return getAreaByIdAsync(id).await().indefinitely();
+    }
+
+    /**
+     * <p>Non-blocking version of {@link #getAreaById(int)}.</p>
+     *
+     * <p>Hits are returned immediately; on a miss the returned Uni completes when the upstream answers, without holding
+     * the calling thread. Lookups for a code that is already in flight join that lookup.</p>
+     *
+     * @param id The 3 digit US area code
+     * @return A Uni emitting the Area for the given area code, or failing with an {@link InvalidAreaCodeException} if the
+     * area code does not exist or an {@link AreaServiceUnavailableException} if it cannot be resolved right now
+     */
+    public Uni<Area> getAreaByIdAsync(int id) {
+        Area area = areaTable.get(id);
+        if (area != null) {
+            return Uni.createFrom().item(area);
+        }
+
+        if (unknownAreas.getIfPresent(id) != null) {
+            return Uni.createFrom().failure(new InvalidAreaCodeException("The area code provided does not exist"));
+        }
+
+        dropFailedLookup(id);
+
+        // Either join the lookup already in flight for this code, or start a new one.
+        CompletableFuture<Area> shared = areas.get(id, (key, executor) -> fetch(key));
+        return Uni.createFrom().completionStage(shared)
+                .onFailure(CompletionException.class).transform(Throwable::getCause);
+    }
+
+    /**
+     * <p>Returns the Area with the given id if it can be answered from memory, without ever calling the upstream.</p>
+     *
+     * @param id The 3 digit US area code
+     * @return The Area for the given area code; or null if it is not known locally
+     * @throws InvalidAreaCodeException If the area code has recently been reported as unknown
+     */
+    public Area peekAreaById(int id) {
+        Area area = areaTable.get(id);
+        if (area != null) {
+            return area;
+        }
+
+        if (unknownAreas.getIfPresent(id) != null) {
+            throw new InvalidAreaCodeException("The area code provided does not exist");
+        }
+
+        CompletableFuture<Area> cached = areas.getIfPresent(id);
+        if (cached != null && cached.isDone() && !cached.isCompletedExceptionally()) {
+            return cached.join();
+        }
+        return null;
+    }
+
+    /**
+     * <p>Asks the upstream for the Area with the given id, remembering codes it does not know and falling back to the
+     * last known Area if the upstream is unavailable.</p>
+     *
+     * @param id The 3 digit US area code
+     * @return A future completing with the Area for the given area code
+     */
+    private CompletableFuture<Area> fetch(int id) {
+        // The cache has to see the lookup fail to evict it. The stage returned by subscribeAsCompletionStage() is a
+        // context propagation wrapper whose isDone() does not follow the lookup, so complete a plain future instead.
+        CompletableFuture<Area> lookup = new CompletableFuture<>();
+        guardedAreaService.getAreaById(id)
+                .invoke(area -> lastKnown.put(id, area))
+                .onFailure(InvalidAreaCodeException.class).invoke(e -> unknownAreas.put(id, Boolean.TRUE))
+                .onFailure(e -> !(e instanceof InvalidAreaCodeException)).recoverWithUni(e -> {
+                    Area stale = lastKnown.get(id);
+                    if (stale == null) {
+                        return Uni.createFrom().failure(new AreaServiceUnavailableException(
+                                "The area code provided cannot be resolved at the moment", e));
+                    }
+                    log.warning("CachedAreaService.fetch() - Serving last known area {}", id, e);
+                    return Uni.createFrom().item(stale);
+                })
+                .subscribe().with(lookup::complete, lookup::completeExceptionally);
+        return lookup;
+    }
+
+    /**
+     * <p>Removes a failed lookup for the given code that is still in the cache.</p>
+     *
+     * <p>The cache only evicts a failed lookup after the callers waiting on it have been completed, so a caller arriving
+     * in between would otherwise be handed the old failure instead of starting a new lookup.</p>
+     *
+     * @param id The 3 digit US area code
+     */
+    private void dropFailedLookup(int id) {
+        CompletableFuture<Area> previous = areas.asMap().get(id);
+        if (previous != null && previous.isCompletedExceptionally()) {
+            areas.asMap().remove(id, previous);
+        }
+    }
+
+    /**
+     * <p>Returns a snapshot of the hit, miss and eviction counters of the cache.</p>
+     *
+     * @return The cache statistics
+     */
+    public CacheStats stats() {
+        return areas.synchronous().stats();
+    }
+
+    /**
+     * <p>Returns a snapshot of the hit, miss and eviction counters of the negative (unknown area code) cache.</p>
+     *
+     * @return The negative cache statistics
+     */
+    public CacheStats unknownStats() {
+        return unknownAreas.stats();
+    }
+}
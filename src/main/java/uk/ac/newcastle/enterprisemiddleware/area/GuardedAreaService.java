@@ -0,0 +1,61 @@
+package uk.ac.newcastle.enterprisemiddleware.area;
+
+import io.smallrye.common.annotation.NonBlocking;
+import io.smallrye.faulttolerance.api.CircuitBreakerName;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
+import org.eclipse.microprofile.faulttolerance.Timeout;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * <p>Guarded access to single area code lookups on the upstream area-api, used by {@link CachedAreaService} on a cache
+ * miss.</p>
+ *
+ * <p>Every call has a timeout budget and goes through a circuit breaker. Once too many of the recent calls have failed
+ * or timed out the breaker opens, and calls fail straight away with a
+ * {@link org.eclipse.microprofile.faulttolerance.exceptions.CircuitBreakerOpenException} instead of tying up the
+ * caller. After the delay a few probe calls are let through (half-open); if they succeed the breaker closes again.</p>
+ *
+ * <p>A 404 NOT_FOUND is a perfectly healthy answer, so it is reported as an {@link InvalidAreaCodeException} and does
+ * not count against the breaker.</p>
+ *
+ * <p>All values can be overridden with the standard MicroProfile Fault Tolerance properties, e.g.
+ * <code>uk.ac.newcastle.enterprisemiddleware.area.GuardedAreaService/getAreaById/Timeout/value</code>.</p>
+ *
+ * @see ReactiveAreaService
+ */
+@ApplicationScoped
+public class GuardedAreaService {
+
+    public static final String CIRCUIT_BREAKER = "area-api";
+
+    @RestClient
+    ReactiveAreaService reactiveAreaService;
+
+    /**
+     * <p>Asks the upstream service for the Area with the given id, without blocking the calling thread.</p>
+     *
+     * @param id The 3 digit US area code
+     * @return A Uni emitting the Area, or failing with an {@link InvalidAreaCodeException} if the area code does not
+     * exist, or with a timeout / open circuit / upstream error otherwise
+     */
+    @NonBlocking
+    @Timeout(value = 2, unit = ChronoUnit.SECONDS)
+    @CircuitBreaker(requestVolumeThreshold = 10, failureRatio = 0.5, delay = 10, delayUnit = ChronoUnit.SECONDS,
+            successThreshold = 2, skipOn = InvalidAreaCodeException.class)
+    @CircuitBreakerName(CIRCUIT_BREAKER)
+    public Uni<Area> getAreaById(int id) {
+        return reactiveAreaService.getAreaById(id)
+                .onFailure(WebApplicationException.class).transform(e -> {
+                    if (((WebApplicationException) e).getResponse().getStatus() == Response.Status.NOT_FOUND.getStatusCode()) {
+                        return new InvalidAreaCodeException("The area code provided does not exist", e);
+                    }
+                    return e;
+                });
+    }
+}
@@ -0,0 +1,30 @@
+package uk.ac.newcastle.enterprisemiddleware.area;
+
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import java.util.List;
+
+/**
+ * <p>Non-blocking twin of {@link AreaService}, talking to the same upstream API.</p>
+ *
+ * <p>The calls return a {@link Uni} that completes when the response arrives, so the calling thread is never parked
+ * while waiting on the network.</p>
+ *
+ * @see AreaService
+ */
+@Path("/areas")
+@RegisterRestClient(configKey = "area-api")
+public interface ReactiveAreaService {
+
+    @GET
+    Uni<List<Area>> getAreas();
+
+
+    @GET
+    @Path("/{id:[0-9]+}")
+    Uni<Area> getAreaById(@PathParam("id") int id);
+}
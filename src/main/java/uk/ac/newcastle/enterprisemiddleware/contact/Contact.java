@@ -1,5 +1,11 @@
 package uk.ac.newcastle.enterprisemiddleware.contact;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.annotations.QueryHints;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
 import javax.persistence.*;
 import javax.validation.constraints.*;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -14,6 +20,11 @@ import java.util.Objects;
  * <p>The class also specifies how a contacts are retrieved from the database (with @NamedQueries), and acceptable values
  * for Contact fields (with @NotNull, @Pattern etc...)<p/>
  *
+ * <p>Contacts are read far more often than they are written, so they are kept in the Hibernate second-level cache
+ * (@Cacheable), and the lookup by email in the query cache. Hibernate updates or evicts the cached entries itself
+ * whenever a Contact is written through the EntityManager. The one exception is the bulk update of the state, which
+ * is a native query so that it does not empty the whole region; see {@link ContactRepository#updateState}.</p>
+ *
  * @author Joshua Wilson
  */
 /*
@@ -21,23 +32,62 @@ import java.util.Objects;
  * form of query in JPA though is it more error prone due to the syntax being in a String.  This makes it harder to debug.
  */
 @Entity
+@Cacheable
 @NamedQueries({
-        @NamedQuery(name = Contact.FIND_ALL, query = "SELECT c FROM Contact c ORDER BY c.lastName ASC, c.firstName ASC"),
-        @NamedQuery(name = Contact.FIND_BY_EMAIL, query = "SELECT c FROM Contact c WHERE c.email = :email")
+        @NamedQuery(name = Contact.FIND_ALL, query = "SELECT c FROM Contact c ORDER BY c.lastName ASC, c.firstName ASC, c.id ASC"),
+        @NamedQuery(name = Contact.FIND_ALL_AFTER, query = "SELECT c FROM Contact c WHERE c.lastName > :lastName OR "
+                + "(c.lastName = :lastName AND (c.firstName > :firstName OR (c.firstName = :firstName AND c.id > :id))) "
+                + "ORDER BY c.lastName ASC, c.firstName ASC, c.id ASC"),
+        @NamedQuery(name = Contact.EXPORT_ALL, query = "SELECT c FROM Contact c ORDER BY c.id ASC"),
+        @NamedQuery(name = Contact.FIND_BY_EMAIL, query = "SELECT c FROM Contact c WHERE c.email = :email",
+                hints = @QueryHint(name = QueryHints.CACHEABLE, value = "true")),
+        @NamedQuery(name = Contact.EMAIL_EXISTS, query = "SELECT 1 FROM Contact c WHERE c.email = :email AND (:id IS NULL OR c.id <> :id)"),
+        @NamedQuery(name = Contact.FIND_EMAILS, query = "SELECT c.email FROM Contact c WHERE c.email IN :emails"),
+        @NamedQuery(name = Contact.FIND_BY_NAME, query = "SELECT c FROM Contact c WHERE c.lastName = :lastName AND c.firstName = :firstName ORDER BY c.id ASC"),
+        @NamedQuery(name = Contact.FIND_MISSING_STATE, query = "SELECT c.id, c.phoneNumber FROM Contact c WHERE c.state IS NULL"),
+        @NamedQuery(name = Contact.DELETE_BY_ID, query = "DELETE FROM Contact c WHERE c.id = :id")
 })
+@NamedNativeQuery(name = Contact.UPDATE_STATE, query = "UPDATE contact SET state = :state, version = version + 1 "
+        + "WHERE id IN (:ids) AND phone_number LIKE :areaCode")
 @XmlRootElement
-@Table(name = "contact", uniqueConstraints = @UniqueConstraint(columnNames = "email"))
+@Table(name = "contact", uniqueConstraints = @UniqueConstraint(columnNames = "email"),
+        indexes = @Index(name = "idx_contact_name", columnList = "last_name, first_name"))
 public class Contact implements Serializable {
     /** Default value included to remove warning. Remove or modify at will. **/
     private static final long serialVersionUID = 1L;
 
     public static final String FIND_ALL = "Contact.findAll";
+    public static final String FIND_ALL_AFTER = "Contact.findAllAfter";
+    public static final String EXPORT_ALL = "Contact.exportAll";
     public static final String FIND_BY_EMAIL = "Contact.findByEmail";
-
+    public static final String EMAIL_EXISTS = "Contact.emailExists";
+    public static final String FIND_BY_NAME = "Contact.findByName";
+    public static final String FIND_EMAILS = "Contact.findEmails";
+    public static final String FIND_MISSING_STATE = "Contact.findMissingState";
+    public static final String UPDATE_STATE = "Contact.updateState";
+    public static final String DELETE_BY_ID = "Contact.deleteById";
+
+    /*
+     * Ids come from the contact_seq sequence through the pooled-lo optimizer: every nextval reserves a block of 50 ids
+     * that are then handed out in memory, so inserts need no extra round trip and can be sent in JDBC batches.
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.TABLE)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "contact_seq")
+    @GenericGenerator(name = "contact_seq", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+            @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "contact_seq"),
+            @Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = "50"),
+            @Parameter(name = SequenceStyleGenerator.OPT_PARAM, value = "pooled-lo")
+    })
     private Long id;
 
+    /*
+     * Incremented by Hibernate on every update. It is the entity tag of the Contact, and is never taken from a request
+     * body.
+     */
+    @Version
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
+
     @NotNull
     @Size(min = 1, max = 25)
     @Pattern(regexp = "[A-Za-z-']+", message = "Please use a name without numbers or specials")
@@ -77,6 +127,14 @@ public class Contact implements Serializable {
         this.id = id;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public String getFirstName() {
         return firstName;
     }
@@ -0,0 +1,34 @@
+package uk.ac.newcastle.enterprisemiddleware.contact;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.Transactional;
+import java.util.List;
+
+/**
+ * <p>Writes one batch of a bulk Contact import in its own transaction.</p>
+ *
+ * <p>This is a bean of its own so that {@link ContactService#importContacts} calls it through its client proxy, and the
+ * transaction interceptor starts and ends a transaction around every batch. A batch that fails is rolled back on its
+ * own, and the batches written before it stay committed.</p>
+ *
+ * @see ContactService
+ * @see ContactRepository#createAll(List)
+ */
+@ApplicationScoped
+public class ContactBatchWriter {
+
+    @Inject
+    ContactRepository crud;
+
+    /**
+     * <p>Writes a batch of already validated Contacts to the application database in one transaction.<p/>
+     *
+     * @param contacts The Contacts to write
+     * @throws javax.persistence.PersistenceException If the batch could not be written; none of it is
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    void insertAll(List<Contact> contacts) {
+        crud.createAll(contacts);
+    }
+}
@@ -0,0 +1,175 @@
+package uk.ac.newcastle.enterprisemiddleware.contact;
+
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import uk.ac.newcastle.enterprisemiddleware.area.Area;
+import uk.ac.newcastle.enterprisemiddleware.area.CachedAreaService;
+import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.control.ActivateRequestContext;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Background worker filling in the state of Contacts persisted in asynchronous enrichment mode
+ * (<code>contact.enrichment.async=true</code>).</p>
+ *
+ * <p>In that mode {@link ContactService} writes a Contact without its state and fires a {@link StateEnrichmentRequest}.
+ * The request is only queued once the transaction has committed, so the worker never looks for a Contact that is not
+ * there yet.</p>
+ *
+ * <p>The queue is drained on the schedule given by <code>contact.enrichment.interval</code>, at most
+ * <code>contact.enrichment.batch-size</code> Contacts at a time. Each batch is grouped by area code, so every distinct
+ * area code is looked up once and its Contacts are updated with a single bulk UPDATE. The UPDATE only touches Contacts
+ * whose phone number still has that area code, so a lookup racing with a later update of the Contact cannot overwrite
+ * the newer state.</p>
+ *
+ * <p>If the area service is unavailable the requests go back on the queue and are retried, up to
+ * <code>contact.enrichment.max-attempts</code> times. The wait before a retry starts at
+ * <code>contact.enrichment.initial-backoff</code> and doubles with every failed attempt, up to
+ * <code>contact.enrichment.max-backoff</code>, so an outage of the area-api does not use up every attempt within a few
+ * runs. Area codes the upstream does not know leave the state empty.</p>
+ *
+ * <p>The queue only lives in memory. Contacts left without a state by a restart are found and queued again at
+ * startup.</p>
+ *
+ * @see ContactService
+ */
+@ApplicationScoped
+public class ContactEnrichmentService {
+
+    @Inject
+    @Named("logger")
+    Log log;
+
+    @Inject
+    ContactService service;
+
+    @Inject
+    CachedAreaService areaService;
+
+    @ConfigProperty(name = "contact.enrichment.async", defaultValue = "false")
+    boolean async;
+
+    @ConfigProperty(name = "contact.enrichment.batch-size", defaultValue = "100")
+    int batchSize;
+
+    @ConfigProperty(name = "contact.enrichment.max-attempts", defaultValue = "5")
+    int maxAttempts;
+
+    @ConfigProperty(name = "contact.enrichment.initial-backoff", defaultValue = "PT2S")
+    Duration initialBackoff;
+
+    @ConfigProperty(name = "contact.enrichment.max-backoff", defaultValue = "PT5M")
+    Duration maxBackoff;
+
+    // Keyed by Contact id, so a Contact updated again before it is enriched is only looked up for its latest area code
+    private final ConcurrentMap<Long, StateEnrichmentRequest> pending = new ConcurrentHashMap<>();
+
+    /**
+     * <p>Queues a request once the transaction that fired it has committed.</p>
+     *
+     * @param request The Contact to enrich
+     */
+    void onContactSaved(@Observes(during = TransactionPhase.AFTER_SUCCESS) StateEnrichmentRequest request) {
+        pending.put(request.getContactId(), request);
+    }
+
+    /**
+     * <p>Queues every Contact still missing its state, e.g. because the application stopped before they were
+     * enriched.</p>
+     */
+    @ActivateRequestContext
+    void onStart(@Observes StartupEvent event) {
+        if (!async) {
+            return;
+        }
+        for (Object[] row : service.findMissingState()) {
+            Long id = (Long) row[0];
+            pending.putIfAbsent(id, new StateEnrichmentRequest(id, ContactService.areaCode((String) row[1])));
+        }
+        log.info("ContactEnrichmentService.onStart() - {} Contacts waiting for their state", pending.size());
+    }
+
+    /**
+     * @return The number of Contacts waiting for their state
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * <p>Takes the next batch of requests off the queue and fills in the state of their Contacts.</p>
+     */
+    @Scheduled(every = "{contact.enrichment.interval}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void enrich() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Map<Integer, List<StateEnrichmentRequest>> batch = new HashMap<>();
+        int taken = 0;
+        for (StateEnrichmentRequest request : pending.values()) {
+            if (taken == batchSize) {
+                break;
+            }
+            // Requests backing off after a failure stay queued until their next attempt is due
+            if (!request.isDue(now)) {
+                continue;
+            }
+            // Only take the request if it has not been replaced by a newer one in the meantime
+            if (pending.remove(request.getContactId(), request)) {
+                batch.computeIfAbsent(request.getAreaCode(), code -> new ArrayList<>()).add(request);
+                taken++;
+            }
+        }
+
+        for (Map.Entry<Integer, List<StateEnrichmentRequest>> entry : batch.entrySet()) {
+            int areaCode = entry.getKey();
+            List<StateEnrichmentRequest> requests = entry.getValue();
+            try {
+                Area area = areaService.getAreaById(areaCode);
+                List<Long> ids = new ArrayList<>(requests.size());
+                for (StateEnrichmentRequest request : requests) {
+                    ids.add(request.getContactId());
+                }
+                int updated = service.updateState(ids, areaCode, area.getState());
+                log.fine("ContactEnrichmentService.enrich() - Set state of {} Contacts with area code {}", updated, areaCode);
+
+            } catch (InvalidAreaCodeException e) {
+                log.warning("ContactEnrichmentService.enrich() - Unknown area code {}, {} Contacts left without a state",
+                        areaCode, requests.size());
+
+            } catch (RuntimeException e) {
+                for (StateEnrichmentRequest request : requests) {
+                    retry(request, e);
+                }
+            }
+        }
+    }
+
+    private void retry(StateEnrichmentRequest request, RuntimeException cause) {
+        // Wait initialBackoff after the first failure, twice as long after the second, and so on
+        long backoff = Math.min(initialBackoff.toMillis() << Math.min(request.getAttempts(), 20), maxBackoff.toMillis());
+        StateEnrichmentRequest next = request.retry(System.currentTimeMillis() + backoff);
+        if (next.getAttempts() >= maxAttempts) {
+            log.severe("ContactEnrichmentService.enrich() - Giving up on {}", next, cause);
+            return;
+        }
+        // A newer request for the same Contact takes precedence
+        pending.putIfAbsent(next.getContactId(), next);
+    }
+}
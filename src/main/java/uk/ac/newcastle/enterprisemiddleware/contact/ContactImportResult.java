@@ -0,0 +1,71 @@
+package uk.ac.newcastle.enterprisemiddleware.contact;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Outcome of a bulk Contact import: how many Contacts were imported, and why each of the others was rejected.</p>
+ *
+ * @see ContactService#importContacts(java.util.Iterator, ContactImportResult)
+ */
+public class ContactImportResult {
+
+    private int read;
+    private int imported;
+    private final List<Rejection> errors = new ArrayList<>();
+
+    /**
+     * <p>Not part of the response: the number of Contacts read from the request so far, which is also the position of
+     * the next one.</p>
+     */
+    int getRead() {
+        return read;
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    public int getRejected() {
+        return errors.size();
+    }
+
+    public List<Rejection> getErrors() {
+        return errors;
+    }
+
+    void read() {
+        read++;
+    }
+
+    void imported(int count) {
+        imported += count;
+    }
+
+    void reject(int index, Map<String, String> reasons) {
+        errors.add(new Rejection(index, reasons));
+    }
+
+    /**
+     * <p>A Contact that was not imported, identified by its 0-based position in the request body.</p>
+     */
+    public static class Rejection {
+
+        private final int index;
+        private final Map<String, String> reasons;
+
+        Rejection(int index, Map<String, String> reasons) {
+            this.index = index;
+            this.reasons = reasons;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public Map<String, String> getReasons() {
+            return reasons;
+        }
+    }
+}
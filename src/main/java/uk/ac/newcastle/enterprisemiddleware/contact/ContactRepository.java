@@ -1,16 +1,28 @@
 package uk.ac.newcastle.enterprisemiddleware.contact;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.query.NativeQuery;
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
+import uk.ac.newcastle.enterprisemiddleware.util.NdjsonExport;
+
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.Cache;
 import javax.persistence.EntityManager;
+import javax.persistence.NoResultException;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.validation.ConstraintViolationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.util.Collection;
 import java.util.List;
-import java.util.logging.Logger;
 
 /**
  * <p>This is a Repository class and connects the Service/Control layer (see {@link ContactService} with the
@@ -26,21 +38,57 @@ import java.util.logging.Logger;
 @RequestScoped
 public class ContactRepository {
 
+    // Query space of the state update; no entity maps to it, so the update evicts no cache region wholesale
+    private static final String STATE_QUERY_SPACE = "contact_state";
+
     @Inject
     @Named("logger")
-    Logger log;
+    Log log;
 
     @Inject
     EntityManager em;
 
+    @Inject
+    SessionFactory sessionFactory;
+
+    @Inject
+    TransactionSynchronizationRegistry transactions;
+
     /**
-     * <p>Returns a List of all persisted {@link Contact} objects, sorted alphabetically by last name.</p>
+     * <p>Returns a page of persisted {@link Contact} objects, sorted alphabetically by last name, then first name,
+     * then id.</p>
+     *
+     * <p>The page starts just after the Contact with the given sort keys, or at the beginning if id is null.</p>
      *
+     * @param lastName The lastName of the last Contact of the previous page
+     * @param firstName The firstName of the last Contact of the previous page
+     * @param id The id of the last Contact of the previous page; or null for the first page
+     * @param limit The maximum number of Contacts to return
      * @return List of Contact objects
      */
-    List<Contact> findAllOrderedByName() {
-        TypedQuery<Contact> query = em.createNamedQuery(Contact.FIND_ALL, Contact.class);
-        return query.getResultList();
+    List<Contact> findAllOrderedByName(String lastName, String firstName, Long id, int limit) {
+        TypedQuery<Contact> query;
+        if (id == null) {
+            query = em.createNamedQuery(Contact.FIND_ALL, Contact.class);
+        } else {
+            query = em.createNamedQuery(Contact.FIND_ALL_AFTER, Contact.class)
+                    .setParameter("lastName", lastName)
+                    .setParameter("firstName", firstName)
+                    .setParameter("id", id);
+        }
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    /**
+     * <p>Returns a StreamingOutput writing every persisted {@link Contact}, sorted by id, as newline delimited JSON.</p>
+     *
+     * <p>The Contacts are read in a stateless session through a forward-only cursor, see {@link NdjsonExport}.</p>
+     *
+     * @param mapper The ObjectMapper used to serialize each Contact
+     * @return The StreamingOutput to use as the entity of the Response
+     */
+    StreamingOutput exportAll(ObjectMapper mapper) {
+        return new NdjsonExport(sessionFactory, Contact.EXPORT_ALL, mapper);
     }
 
     /**
@@ -53,6 +101,15 @@ public class ContactRepository {
         return em.find(Contact.class, id);
     }
 
+    /**
+     * <p>Stops tracking a Contact read in this transaction, so that changes to it are not written.</p>
+     *
+     * @param contact The Contact to forget
+     */
+    void detach(Contact contact) {
+        em.detach(contact);
+    }
+
     /**
      * <p>Returns a single Contact object, specified by a String email.</p>
      *
@@ -66,6 +123,25 @@ public class ContactRepository {
         return query.getSingleResult();
     }
 
+    /**
+     * <p>Checks if a Contact other than the given one uses an email address.</p>
+     *
+     * <p>Only a constant is selected, so this is a single probe of the unique email index and no Contact is
+     * loaded.</p>
+     *
+     * @param email The email address to look for
+     * @param excludeId The id of the Contact to ignore, or null to consider every Contact
+     * @return true if another Contact uses the email address
+     */
+    boolean emailExists(String email, Long excludeId) {
+        return !em.createNamedQuery(Contact.EMAIL_EXISTS)
+                .setParameter("email", email)
+                .setParameter("id", excludeId)
+                .setMaxResults(1)
+                .getResultList()
+                .isEmpty();
+    }
+
     /**
      * <p>Returns a list of Contact objects, specified by a String firstName.<p/>
      *
@@ -98,6 +174,90 @@ public class ContactRepository {
         return em.createQuery(criteria).getResultList();
     }
 
+    /**
+     * <p>Returns a list of Contact objects, specified by both a String firstName and a String lastName.</p>
+     *
+     * <p>This is a single lookup on the (last_name, first_name) index, rather than two separate queries.</p>
+     *
+     * @param firstName The firstName field of the Contacts to be returned
+     * @param lastName The lastName field of the Contacts to be returned
+     * @return The Contacts with the specified firstName and lastName
+     */
+    List<Contact> findAllByName(String firstName, String lastName) {
+        TypedQuery<Contact> query = em.createNamedQuery(Contact.FIND_BY_NAME, Contact.class)
+                .setParameter("firstName", firstName)
+                .setParameter("lastName", lastName);
+        return query.getResultList();
+    }
+
+    /**
+     * <p>Returns which of the given email addresses are already used by a Contact.</p>
+     *
+     * @param emails The email addresses to look for
+     * @return The email addresses found
+     */
+    List<String> findExistingEmails(Collection<String> emails) {
+        return em.createNamedQuery(Contact.FIND_EMAILS, String.class).setParameter("emails", emails).getResultList();
+    }
+
+    /**
+     * <p>Returns the id and phone number of every Contact whose state has not been filled in yet.</p>
+     *
+     * @return List of [id, phoneNumber] pairs
+     */
+    List<Object[]> findMissingState() {
+        return em.createNamedQuery(Contact.FIND_MISSING_STATE, Object[].class).getResultList();
+    }
+
+    /**
+     * <p>Sets the state of the given Contacts in a single bulk UPDATE, skipping any whose phone number no longer has the
+     * given area code.</p>
+     *
+     * <p>The update goes straight to the database and bypasses the persistence context, so it must run in its own
+     * transaction.</p>
+     *
+     * <p>A bulk JPQL update would empty the whole Contact second-level cache region on every enrichment batch. Instead
+     * the update is a native query synchronized on a query space no entity maps to, so Hibernate leaves the cache
+     * alone, and only the updated Contacts are evicted: now, and again once the transaction is over, so that a copy
+     * read by another transaction in the meantime does not stay cached. The query cache is not invalidated, as the
+     * only cached query, the lookup by email, does not depend on the state.</p>
+     *
+     * @param ids The ids of the Contacts to update
+     * @param areaCode The area code the Contacts' phone numbers must still start with
+     * @param state The state to set
+     * @return The number of Contacts updated
+     */
+    int updateState(Collection<Long> ids, int areaCode, String state) {
+        int updated = em.createNamedQuery(Contact.UPDATE_STATE)
+                .unwrap(NativeQuery.class)
+                .addSynchronizedQuerySpace(STATE_QUERY_SPACE)
+                .setParameter("state", state)
+                .setParameter("ids", ids)
+                .setParameter("areaCode", "(" + areaCode + ")%")
+                .executeUpdate();
+
+        Cache cache = em.getEntityManagerFactory().getCache();
+        evict(cache, ids);
+        transactions.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                evict(cache, ids);
+            }
+        });
+
+        return updated;
+    }
+
+    private static void evict(Cache cache, Collection<Long> ids) {
+        for (Long id : ids) {
+            cache.evict(Contact.class, id);
+        }
+    }
+
     /**
      * <p>Persists the provided Contact object to the application database using the EntityManager.</p>
      *
@@ -111,7 +271,7 @@ public class ContactRepository {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     Contact create(Contact contact) throws Exception {
-        log.info("ContactRepository.create() - Creating " + contact.getFirstName() + " " + contact.getLastName());
+        log.info("ContactRepository.create() - Creating {} {}", contact.getFirstName(), contact.getLastName());
 
         // Write the contact to the database.
         em.persist(contact);
@@ -119,6 +279,25 @@ public class ContactRepository {
         return contact;
     }
 
+    /**
+     * <p>Persists a batch of Contacts, then flushes and clears the persistence context.</p>
+     *
+     * <p>The flush sends the inserts to the database in JDBC batches (see
+     * <code>quarkus.hibernate-orm.jdbc.statement-batch-size</code>), and the clear stops the persistence context from
+     * growing with every batch of a large import.</p>
+     *
+     * @param contacts The Contacts to persist
+     */
+    void createAll(List<Contact> contacts) {
+        log.info("ContactRepository.createAll() - Creating {} Contacts", contacts.size());
+
+        for (Contact contact : contacts) {
+            em.persist(contact);
+        }
+        em.flush();
+        em.clear();
+    }
+
     /**
      * <p>Updates an existing Contact object in the application database with the provided Contact object.</p>
      *
@@ -128,50 +307,56 @@ public class ContactRepository {
      *
      * <p>merge(Object) however must have an object with the @Id already generated.</p>
      *
+     * <p>A Contact carrying a version, the one the client last read, is not merged but reattached as it is, so the
+     * stored Contact is not read at all and the flush is a single <code>UPDATE ... WHERE id = ? AND version = ?</code>.
+     * If that matches no row, because the Contact has changed or been deleted since, an
+     * {@link javax.persistence.OptimisticLockException} is thrown rather than a concurrent change being lost. The
+     * changes are flushed here so that it is thrown to the caller rather than at commit. The Contact must not already
+     * be managed by this persistence context.</p>
+     *
      * @param contact The Contact object to be merged with an existing Contact
-     * @return The Contact that has been merged
-     * @throws ConstraintViolationException, ValidationException, Exception
+     * @return The Contact that has been written, with its new version
+     * @throws NoResultException If the Contact carries no version and none with its id exists
+     * @throws ConstraintViolationException, ValidationException, OptimisticLockException, Exception
      */
     Contact update(Contact contact) throws Exception {
-        log.info("ContactRepository.update() - Updating " + contact.getFirstName() + " " + contact.getLastName());
+        log.info("ContactRepository.update() - Updating {} {}", contact.getFirstName(), contact.getLastName());
 
-        // Either update the contact or add it if it can't be found.
-        em.merge(contact);
+        if (contact.getVersion() != null) {
+            // Reattached as it is, without reading the stored Contact: the flush is the only statement, and matches no row
+            // if the Contact has changed or gone since that version
+            em.unwrap(Session.class).update(contact);
+            em.flush();
+            return contact;
+        }
 
-        return contact;
+        // Otherwise the update applies on top of the current version, and merge() reuses the Contact found here
+        Contact current = em.find(Contact.class, contact.getId());
+        if (current == null) {
+            throw new NoResultException("No Contact with the id " + contact.getId());
+        }
+        contact.setVersion(current.getVersion());
+
+        Contact updated = em.merge(contact);
+        em.flush();
+
+        return updated;
     }
 
     /**
-     * <p>Deletes the provided Contact object from the application database if found there</p>
+     * <p>Deletes the Contact with the given id from the application database if found there.</p>
+     *
+     * <p>Nothing needs the deleted Contact, so it is not loaded: a single DELETE is run, and its row count says whether
+     * there was one. As a bulk statement it evicts the Contact cache region, so no cached copy outlives the row.</p>
      *
-     * @param contact The Contact object to be removed from the application database
-     * @return The Contact object that has been successfully removed from the application database; or null
+     * @param id The id of the Contact to be removed from the application database
+     * @return Whether a Contact has been removed from the application database
      * @throws Exception
      */
-    Contact delete(Contact contact) throws Exception {
-        log.info("ContactRepository.delete() - Deleting " + contact.getFirstName() + " " + contact.getLastName());
-
-        if (contact.getId() != null) {
-            /*
-             * The Hibernate session (aka EntityManager's persistent context) is closed and invalidated after the commit(),
-             * because it is bound to a transaction. The object goes into a detached status. If you open a new persistent
-             * context, the object isn't known as in a persistent state in this new context, so you have to merge it.
-             *
-             * Merge sees that the object has a primary key (id), so it knows it is not new and must hit the database
-             * to reattach it.
-             *
-             * Note, there is NO remove method which would just take a primary key (id) and a entity class as argument.
-             * You first need an object in a persistent state to be able to delete it.
-             *
-             * Therefore we merge first and then we can remove it.
-             */
-            em.remove(em.merge(contact));
+    boolean deleteById(Long id) throws Exception {
+        log.info("ContactRepository.deleteById() - Deleting Contact {}", id);
 
-        } else {
-            log.info("ContactRepository.delete() - No ID was found so can't Delete.");
-        }
-
-        return contact;
+        return em.createNamedQuery(Contact.DELETE_BY_ID).setParameter("id", id).executeUpdate() > 0;
     }
 
 }
@@ -1,27 +1,45 @@
 package uk.ac.newcastle.enterprisemiddleware.contact;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.smallrye.mutiny.unchecked.Unchecked;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.jboss.resteasy.reactive.Cache;
+import uk.ac.newcastle.enterprisemiddleware.area.AreaServiceUnavailableException;
 import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
+import uk.ac.newcastle.enterprisemiddleware.util.ETags;
+import uk.ac.newcastle.enterprisemiddleware.util.KeysetPage;
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
+import uk.ac.newcastle.enterprisemiddleware.util.NdjsonExport;
 import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.NoResultException;
+import javax.persistence.OptimisticLockException;
 import javax.transaction.Transactional;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Logger;
+import java.util.concurrent.CompletionException;
 
 
 /**
@@ -47,11 +65,14 @@ import java.util.logging.Logger;
 public class ContactRestService {
     @Inject
     @Named("logger")
-    Logger log;
+    Log log;
 
     @Inject
     ContactService service;
 
+    @Inject
+    ObjectMapper mapper;
+
     /**
      * <p>Return all the Contacts.  They are sorted alphabetically by name.</p>
      *
@@ -59,28 +80,62 @@ public class ContactRestService {
      *
      * <p>Examples: <pre>GET api/contacts?firstname=John</pre>, <pre>GET api/contacts?firstname=John&lastname=Smith</pre></p>
      *
+     * <p>Without a name the Contacts are returned a page at a time, see {@link KeysetPage}: <pre>GET
+     * api/contacts?limit=50</pre>, then the URL in the <code>Link rel="next"</code> header for the next page.</p>
+     *
      * @return A Response containing a list of Contacts
      */
     @GET
-    @Operation(summary = "Fetch all Contacts", description = "Returns a JSON array of all stored Contact objects.")
-    public Response retrieveAllContacts(@QueryParam("firstname") String firstname, @QueryParam("lastname") String lastname) {
-        //Create an empty collection to contain the intersection of Contacts to be returned
+    @Operation(summary = "Fetch all Contacts", description = "Returns a JSON array of stored Contact objects, a page at a time.")
+    public Response retrieveAllContacts(
+            @QueryParam("firstname") String firstname,
+            @QueryParam("lastname") String lastname,
+            @Parameter(description = "Cursor from the Link rel=\"next\" header of the previous page")
+            @QueryParam("after") String after,
+            @Parameter(description = "Maximum number of Contacts to return")
+            @QueryParam("limit") Integer limit,
+            @Context UriInfo uriInfo) {
         List<Contact> contacts;
 
         if(firstname == null && lastname == null) {
-            contacts = service.findAllOrderedByName();
+            int pageSize = KeysetPage.limit(limit);
+            if (after == null) {
+                contacts = service.findAllOrderedByName(null, null, null, pageSize + 1);
+            } else {
+                String[] keys = KeysetPage.decode(after, 3);
+                contacts = service.findAllOrderedByName(keys[0], keys[1], KeysetPage.id(keys, 2), pageSize + 1);
+            }
+            return KeysetPage.response(contacts, pageSize, uriInfo,
+                    c -> KeysetPage.encode(c.getLastName(), c.getFirstName(), c.getId()));
         } else if(lastname == null) {
             contacts = service.findAllByFirstName(firstname);
         } else if(firstname == null) {
             contacts = service.findAllByLastName(lastname);
         } else {
-            contacts = service.findAllByFirstName(firstname);
-            contacts.retainAll(service.findAllByLastName(lastname));
+            contacts = service.findAllByName(firstname, lastname);
         }
 
         return Response.ok(contacts).build();
     }
 
+    /**
+     * <p>Export all the Contacts, sorted by id, as newline delimited JSON: one Contact object per line.</p>
+     *
+     * <p>The Contacts are streamed to the client as they are read from the database, so the export never holds the
+     * whole table in memory.</p>
+     *
+     * <p>Example: <pre>GET api/contacts/export</pre></p>
+     *
+     * @return A StreamingOutput writing all the Contacts
+     */
+    @GET
+    @Path("/export")
+    @Produces(NdjsonExport.MEDIA_TYPE)
+    @Operation(summary = "Export all Contacts", description = "Streams every stored Contact object as newline delimited JSON.")
+    public StreamingOutput exportContacts() {
+        return service.exportAll(mapper);
+    }
+
     /**
      * <p>Search for and return a Contact identified by email address.<p/>
      *
@@ -100,12 +155,14 @@ public class ContactRestService {
     )
     @APIResponses(value = {
             @APIResponse(responseCode = "200", description ="Contact found"),
+            @APIResponse(responseCode = "304", description = "The client's copy is current"),
             @APIResponse(responseCode = "404", description = "Contact with email not found")
     })
     public Response retrieveContactsByEmail(
             @Parameter(description = "Email of Contact to be fetched", required = true)
             @PathParam("email")
-            String email) {
+            String email,
+            @Context Request request) {
 
         Contact contact;
         try {
@@ -114,7 +171,12 @@ public class ContactRestService {
             // Verify that the contact exists. Return 404, if not present.
             throw new RestServiceException("No Contact with the email " + email + " was found!", Response.Status.NOT_FOUND);
         }
-        return Response.ok(contact).build();
+        // The Contact comes from the second-level and query caches, so only its serialization is saved here
+        Response notModified = ETags.notModified(request, contact.getId(), contact.getVersion());
+        if (notModified != null) {
+            return notModified;
+        }
+        return Response.ok(contact).tag(ETags.of(contact.getId(), contact.getVersion())).build();
     }
 
     /**
@@ -132,31 +194,42 @@ public class ContactRestService {
     )
     @APIResponses(value = {
             @APIResponse(responseCode = "200", description ="Contact found"),
+            @APIResponse(responseCode = "304", description = "The client's copy is current"),
             @APIResponse(responseCode = "404", description = "Contact with id not found")
     })
     public Response retrieveContactById(
             @Parameter(description = "Id of Contact to be fetched")
             @Schema(minimum = "0", required = true)
             @PathParam("id")
-            long id) {
+            long id,
+            @Context Request request) {
 
+        // The Contact usually comes from the second-level cache, so the version costs no query; an unchanged one is
+        // just not serialized
         Contact contact = service.findById(id);
         if (contact == null) {
             // Verify that the contact exists. Return 404, if not present.
             throw new RestServiceException("No Contact with the id " + id + " was found!", Response.Status.NOT_FOUND);
         }
-        log.info("findById " + id + ": found Contact = " + contact);
+        Response notModified = ETags.notModified(request, id, contact.getVersion());
+        if (notModified != null) {
+            return notModified;
+        }
+        log.fine("findById {}: found Contact = {}", id, contact);
 
-        return Response.ok(contact).build();
+        return Response.ok(contact).tag(ETags.of(contact.getId(), contact.getVersion())).build();
     }
 
     /**
      * <p>Creates a new contact from the values provided. Performs validation and will return a JAX-RS response with
      * either 201 (Resource created) or with a map of fields, and related errors.</p>
      *
+     * <p>The request does not hold a thread while the area code of the phone number is being looked up; only the
+     * final database write is handed to a worker thread.</p>
+     *
      * @param contact The Contact object, constructed automatically from JSON input, to be <i>created</i> via
-     * {@link ContactService#create(Contact)}
-     * @return A Response indicating the outcome of the create operation
+     * {@link ContactService#insert(Contact)}
+     * @return A Uni emitting a Response indicating the outcome of the create operation
      */
     @SuppressWarnings("unused")
     @POST
@@ -165,10 +238,10 @@ public class ContactRestService {
             @APIResponse(responseCode = "201", description = "Contact created successfully."),
             @APIResponse(responseCode = "400", description = "Invalid Contact supplied in request body"),
             @APIResponse(responseCode = "409", description = "Contact supplied in request body conflicts with an existing Contact"),
-            @APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request")
+            @APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request"),
+            @APIResponse(responseCode = "503", description = "The area code of the Contact cannot be verified at the moment")
     })
-    @Transactional
-    public Response createContact(
+    public Uni<Response> createContact(
             @Parameter(description = "JSON representation of Contact object to be added to the database", required = true)
             Contact contact) {
 
@@ -176,54 +249,82 @@ public class ContactRestService {
             throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST);
         }
 
-        Response.ResponseBuilder builder;
-
-        try {
-            // Clear the ID if accidentally set
-            contact.setId(null);
-
-            // Go add the new Contact.
-            service.create(contact);
-
-            // Create a "Resource Created" 201 Response and pass the contact back in case it is needed.
-            builder = Response.status(Response.Status.CREATED).entity(contact);
+        // Clear the ID if accidentally set
+        contact.setId(null);
 
+        return service.resolveStateAsync(contact)
+                // Go add the new Contact; JDBC is blocking so this step runs on a worker thread.
+                .emitOn(Infrastructure.getDefaultWorkerPool())
+                .map(Unchecked.function(service::insert))
+                .map(created -> {
+                    log.info("createContact completed. Contact = {}", created);
 
-        } catch (ConstraintViolationException ce) {
-            //Handle bean validation issues
-            Map<String, String> responseObj = new HashMap<>();
+                    // Create a "Resource Created" 201 Response and pass the contact back in case it is needed.
+                    return Response.status(Response.Status.CREATED).entity(created).build();
+                })
+                .onFailure().transform(e -> toRestServiceException(e, "Bad Request"));
+    }
 
-            for (ConstraintViolation<?> violation : ce.getConstraintViolations()) {
-                responseObj.put(violation.getPropertyPath().toString(), violation.getMessage());
+    /**
+     * <p>Creates many Contacts in one request. The body is either a JSON array of Contacts or newline delimited JSON
+     * with one Contact per line, and is read a Contact at a time.</p>
+     *
+     * <p>Contacts are validated and written in batches, see {@link ContactService#importContacts}. Invalid Contacts do
+     * not fail the request: the response lists how many Contacts were imported, and the position in the body and the
+     * reasons of each one that was rejected.</p>
+     *
+     * <p>A Contact that cannot be read ends the import with 400 (bad request). The Contacts before it are still
+     * imported, and the response gives its index and the counts so far.</p>
+     *
+     * @param body The JSON array or NDJSON stream of Contacts
+     * @return A Response containing the {@link ContactImportResult}
+     */
+    @POST
+    @Path("/import")
+    @Consumes({MediaType.APPLICATION_JSON, NdjsonExport.MEDIA_TYPE})
+    @Operation(description = "Add many new Contacts to the database")
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Import completed, see the body for rejected Contacts"),
+            @APIResponse(responseCode = "400", description = "The request body is not a JSON array or NDJSON stream of Contacts"),
+            @APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request")
+    })
+    public Response importContacts(
+            @Parameter(description = "JSON array, or newline delimited JSON, of Contact objects to be added to the database", required = true)
+            InputStream body) {
+
+        ContactImportResult result = new ContactImportResult();
+        try (MappingIterator<Contact> contacts = mapper.readerFor(Contact.class).readValues(body)) {
+            service.importContacts(contacts, result);
+        } catch (IOException | RuntimeJsonMappingException e) {
+            throw malformedContact(result, e);
+        } catch (RuntimeException e) {
+            // MappingIterator wraps a body it cannot parse, such as one cut short, in a plain RuntimeException
+            if (e.getCause() instanceof IOException) {
+                throw malformedContact(result, (IOException) e.getCause());
             }
-            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, ce);
-
-        } catch (UniqueEmailException e) {
-            // Handle the unique constraint violation
-            Map<String, String> responseObj = new HashMap<>();
-            responseObj.put("email", "That email is already used, please use a unique email");
-            throw new RestServiceException("Bad Request", responseObj, Response.Status.CONFLICT, e);
-        } catch (InvalidAreaCodeException e) {
-            Map<String, String> responseObj = new HashMap<>();
-            responseObj.put("area_code", "The telephone area code provided is not recognised, please provide another");
-            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
-        } catch (Exception e) {
-            // Handle generic exceptions
-            throw new RestServiceException(e);
+            throw e;
         }
 
-        log.info("createContact completed. Contact = " + contact);
-        return builder.build();
+        log.info("importContacts completed. Imported = {}, rejected = {}", result.getImported(), result.getRejected());
+        return Response.ok(result).build();
     }
 
     /**
      * <p>Updates the contact with the ID provided in the database. Performs validation, and will return a JAX-RS response
      * with either 200 (ok), or with a map of fields, and related errors.</p>
      *
+     * <p>As with {@link #createContact(Contact)} the area code lookup does not hold a thread.</p>
+     *
+     * <p>The client sends the ETag it read in <code>If-Match</code>, and the update only applies to that version of the
+     * Contact: 412 (precondition failed) is returned if the Contact has changed or been deleted since, and 428
+     * (precondition required) if the header is missing. <code>If-Match: *</code> overwrites whichever version is
+     * stored.</p>
+     *
      * @param contact The Contact object, constructed automatically from JSON input, to be <i>updated</i> via
-     * {@link ContactService#update(Contact)}
+     * {@link ContactService#replace(Contact)}
      * @param id The long parameter value provided as the id of the Contact to be updated
-     * @return A Response indicating the outcome of the create operation
+     * @param ifMatch The ETag of the version of the Contact the update is based on
+     * @return A Uni emitting a Response indicating the outcome of the update operation
      */
     @PUT
     @Path("/{id:[0-9]+}")
@@ -233,16 +334,21 @@ public class ContactRestService {
             @APIResponse(responseCode = "400", description = "Invalid Contact supplied in request body"),
             @APIResponse(responseCode = "404", description = "Contact with id not found"),
             @APIResponse(responseCode = "409", description = "Contact details supplied in request body conflict with another existing Contact"),
-            @APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request")
+            @APIResponse(responseCode = "412", description = "The Contact has changed since the version given in If-Match"),
+            @APIResponse(responseCode = "428", description = "No If-Match header was given"),
+            @APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request"),
+            @APIResponse(responseCode = "503", description = "The area code of the Contact cannot be verified at the moment")
     })
-    @Transactional
-    public Response updateContact(
+    public Uni<Response> updateContact(
             @Parameter(description=  "Id of Contact to be updated", required = true)
             @Schema(minimum = "0")
             @PathParam("id")
             long id,
             @Parameter(description = "JSON representation of Contact object to be updated in the database", required = true)
-            Contact contact) {
+            Contact contact,
+            @Parameter(description = "ETag of the version of the Contact the update is based on, or *", required = true)
+            @HeaderParam("If-Match")
+            String ifMatch) {
 
         if (contact == null || contact.getId() == null) {
             throw new RestServiceException("Invalid Contact supplied in request body", Response.Status.BAD_REQUEST);
@@ -256,46 +362,21 @@ public class ContactRestService {
                     responseObj, Response.Status.CONFLICT);
         }
 
-        if (service.findById(contact.getId()) == null) {
-            // Verify that the contact exists. Return 404, if not present.
-            throw new RestServiceException("No Contact with the id " + id + " was found!", Response.Status.NOT_FOUND);
-        }
-
-        Response.ResponseBuilder builder;
-
-        try {
-            // Apply the changes the Contact.
-            service.update(contact);
-
-            // Create an OK Response and pass the contact back in case it is needed.
-            builder = Response.ok(contact);
-
-
-        } catch (ConstraintViolationException ce) {
-            //Handle bean validation issues
-            Map<String, String> responseObj = new HashMap<>();
-
-            for (ConstraintViolation<?> violation : ce.getConstraintViolations()) {
-                responseObj.put(violation.getPropertyPath().toString(), violation.getMessage());
-            }
-            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, ce);
-        } catch (UniqueEmailException e) {
-            // Handle the unique constraint violation
-            Map<String, String> responseObj = new HashMap<>();
-            responseObj.put("email", "That email is already used, please use a unique email");
-            throw new RestServiceException("Contact details supplied in request body conflict with another Contact",
-                    responseObj, Response.Status.CONFLICT, e);
-        } catch (InvalidAreaCodeException e) {
-            Map<String, String> responseObj = new HashMap<>();
-            responseObj.put("area_code", "The telephone area code provided is not recognised, please provide another");
-            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
-        } catch (Exception e) {
-            // Handle generic exceptions
-            throw new RestServiceException(e);
-        }
-
-        log.info("updateContact completed. Contact = " + contact);
-        return builder.build();
+        // The version is read only in the body; the client states the one it read in If-Match instead
+        contact.setVersion(ETags.expectedVersion(id, ifMatch));
+
+        return service.resolveStateAsync(contact)
+                // Apply the changes the Contact; JDBC is blocking so this step runs on a worker thread.
+                .emitOn(Infrastructure.getDefaultWorkerPool())
+                .map(Unchecked.function(service::replace))
+                .map(updated -> {
+                    log.info("updateContact completed. Contact = {}", updated);
+
+                    // Create an OK Response and pass the contact back in case it is needed.
+                    return Response.ok(updated).tag(ETags.of(updated.getId(), updated.getVersion())).build();
+                })
+                .onFailure().transform(e -> toRestServiceException(e,
+                        "Contact details supplied in request body conflict with another Contact"));
     }
 
     /**
@@ -322,24 +403,96 @@ public class ContactRestService {
             @PathParam("id")
             long id) {
 
-        Response.ResponseBuilder builder;
+        boolean deleted;
 
-        Contact contact = service.findById(id);
-        if (contact == null) {
-            // Verify that the contact exists. Return 404, if not present.
+        try {
+            deleted = service.delete(id);
+
+        } catch (Exception e) {
+            // Handle generic exceptions
+            throw new RestServiceException(e);
+        }
+        if (!deleted) {
+            // Verify that the contact existed. Return 404, if not present.
             throw new RestServiceException("No Contact with the id " + id + " was found!", Response.Status.NOT_FOUND);
         }
+        log.info("deleteContact completed. Contact = {}", id);
+        return Response.noContent().build();
+    }
 
-        try {
-            service.delete(contact);
+    /**
+     * <p>Reports a Contact that cannot be read from an import, with where the import stopped. The Contacts before it
+     * have been imported, or rejected, already.</p>
+     *
+     * @param result The outcome of the import so far
+     * @param e The failure to read the Contact
+     * @return The RestServiceException to fail the request with
+     */
+    private RestServiceException malformedContact(ContactImportResult result, Exception e) {
+        Map<String, String> responseObj = new HashMap<>();
+        responseObj.put("body", "Malformed Contact at index " + result.getRead() + ": " + e.getMessage());
+        responseObj.put("index", String.valueOf(result.getRead()));
+        responseObj.put("imported", String.valueOf(result.getImported()));
+        responseObj.put("rejected", String.valueOf(result.getRejected()));
+        return new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
+    }
 
-            builder = Response.noContent();
+    /**
+     * <p>Converts a failure raised while creating or updating a Contact into the {@link RestServiceException} describing
+     * it to the client.</p>
+     *
+     * @param e The failure
+     * @param conflictMessage The error message used when the email address is already in use
+     * @return The RestServiceException to fail the request with
+     */
+    private RestServiceException toRestServiceException(Throwable e, String conflictMessage) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            return toRestServiceException(e.getCause(), conflictMessage);
+        }
 
-        } catch (Exception e) {
+        if (e instanceof RestServiceException) {
+            return (RestServiceException) e;
+
+        } else if (e instanceof ConstraintViolationException) {
+            //Handle bean validation issues
+            Map<String, String> responseObj = new HashMap<>();
+
+            for (ConstraintViolation<?> violation : ((ConstraintViolationException) e).getConstraintViolations()) {
+                responseObj.put(violation.getPropertyPath().toString(), violation.getMessage());
+            }
+            return new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, (Exception) e);
+
+        } else if (e instanceof UniqueEmailException) {
+            // Handle the unique constraint violation
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("email", "That email is already used, please use a unique email");
+            return new RestServiceException(conflictMessage, responseObj, Response.Status.CONFLICT, (Exception) e);
+
+        } else if (e instanceof NoResultException) {
+            return new RestServiceException(e.getMessage(), Response.Status.NOT_FOUND, (Exception) e);
+
+        } else if (e instanceof OptimisticLockException) {
+            // The Contact was changed by someone else since the client read it
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("version", "The Contact has been changed by someone else, please fetch it again");
+            return new RestServiceException("Contact details supplied in request body are out of date",
+                    responseObj, Response.Status.PRECONDITION_FAILED, (Exception) e);
+
+        } else if (e instanceof InvalidAreaCodeException) {
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("area_code", "The telephone area code provided is not recognised, please provide another");
+            return new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, (Exception) e);
+
+        } else if (e instanceof AreaServiceUnavailableException) {
+            // The area code could not be checked right now, the client may retry later
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("area_code", "The telephone area code cannot be verified at the moment, please try again later");
+            return new RestServiceException("Service Unavailable", responseObj, Response.Status.SERVICE_UNAVAILABLE, (Exception) e);
+
+        } else if (e instanceof Exception) {
             // Handle generic exceptions
-            throw new RestServiceException(e);
+            return new RestServiceException((Exception) e);
         }
-        log.info("deleteContact completed. Contact = " + contact);
-        return builder.build();
+        return new RestServiceException();
     }
-}
\ No newline at end of file
+}
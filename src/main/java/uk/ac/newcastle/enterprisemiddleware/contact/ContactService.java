@@ -1,18 +1,28 @@
 package uk.ac.newcastle.enterprisemiddleware.contact;
 
-import org.eclipse.microprofile.rest.client.inject.RestClient;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import uk.ac.newcastle.enterprisemiddleware.area.Area;
-import uk.ac.newcastle.enterprisemiddleware.area.AreaService;
+import uk.ac.newcastle.enterprisemiddleware.area.AreaServiceUnavailableException;
+import uk.ac.newcastle.enterprisemiddleware.area.CachedAreaService;
 import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
 
 import javax.enterprise.context.Dependent;
+import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.PersistenceException;
+import javax.transaction.Transactional;
 import javax.validation.ConstraintViolationException;
-import javax.ws.rs.ClientErrorException;
-import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Map;
 
 /**
  * <p>This Service assumes the Control responsibility in the ECB pattern.</p>
@@ -20,6 +30,10 @@ import java.util.logging.Logger;
  * <p>The validation is done here so that it may be used by other Boundary Resources. Other Business Logic would go here
  * as well.</p>
  *
+ * <p>By default the state of a Contact is looked up before it is written. With
+ * <code>contact.enrichment.async=true</code> the Contact is written straight away without its state, and the
+ * {@link ContactEnrichmentService} fills the state in after the transaction has committed.</p>
+ *
  * <p>There are no access modifiers on the methods, making them 'package' scope.  They should only be accessed by a
  * Boundary / Web Service class with public methods.</p>
  *
@@ -33,7 +47,7 @@ public class ContactService {
 
     @Inject
     @Named("logger")
-    Logger log;
+    Log log;
 
     @Inject
     ContactValidator validator;
@@ -41,17 +55,44 @@ public class ContactService {
     @Inject
     ContactRepository crud;
 
-    //Removed temporarily due to non-existing AreaService
-    @RestClient
-    AreaService areaService;
+    @Inject
+    ContactBatchWriter batchWriter;
+
+    // Area codes are resolved through a local cache so only misses reach the upstream AreaService
+    @Inject
+    CachedAreaService areaService;
+
+    @Inject
+    Event<StateEnrichmentRequest> enrichmentRequests;
+
+    @ConfigProperty(name = "contact.enrichment.async", defaultValue = "false")
+    boolean asyncEnrichment;
+
+    @ConfigProperty(name = "contact.import.batch-size", defaultValue = "500")
+    int importBatchSize;
 
     /**
-     * <p>Returns a List of all persisted {@link Contact} objects, sorted alphabetically by last name.<p/>
+     * <p>Returns a page of persisted {@link Contact} objects, sorted alphabetically by last name, then first name,
+     * then id.<p/>
      *
+     * @param lastName The lastName of the last Contact of the previous page
+     * @param firstName The firstName of the last Contact of the previous page
+     * @param id The id of the last Contact of the previous page; or null for the first page
+     * @param limit The maximum number of Contacts to return
      * @return List of Contact objects
      */
-    List<Contact> findAllOrderedByName() {
-        return crud.findAllOrderedByName();
+    List<Contact> findAllOrderedByName(String lastName, String firstName, Long id, int limit) {
+        return crud.findAllOrderedByName(lastName, firstName, id, limit);
+    }
+
+    /**
+     * <p>Returns a StreamingOutput writing every persisted {@link Contact} as newline delimited JSON.<p/>
+     *
+     * @param mapper The ObjectMapper used to serialize each Contact
+     * @return The StreamingOutput to use as the entity of the Response
+     */
+    StreamingOutput exportAll(ObjectMapper mapper) {
+        return crud.exportAll(mapper);
     }
 
     /**
@@ -76,6 +117,26 @@ public class ContactService {
         return crud.findByEmail(email);
     }
 
+    /**
+     * <p>Returns the Contacts with both the given firstName and lastName.<p/>
+     *
+     * @param firstName The firstName field of the Contacts to be returned
+     * @param lastName The lastName field of the Contacts to be returned
+     * @return The Contacts with the specified firstName and lastName
+     */
+    List<Contact> findAllByName(String firstName, String lastName) {
+        return crud.findAllByName(firstName, lastName);
+    }
+
+    /**
+     * <p>Returns the id and phone number of every Contact whose state has not been filled in yet.<p/>
+     *
+     * @return List of [id, phoneNumber] pairs
+     */
+    List<Object[]> findMissingState() {
+        return crud.findMissingState();
+    }
+
     /**
      * <p>Returns a single Contact object, specified by a String firstName.<p/>
      *
@@ -97,88 +158,233 @@ public class ContactService {
     }
 
     /**
-     * <p>Writes the provided Contact object to the application database.<p/>
+     * <p>Non-blocking first half of a create or update: checks the Contact against its Bean Validation constraints and
+     * fills in its state from the area code of its phone number.<p/>
+     *
+     * <p>The area code lookup goes through {@link CachedAreaService#getAreaByIdAsync(int)}, so no thread is held while
+     * the upstream service answers. The returned Contact is ready to be passed to {@link #insert(Contact)} or
+     * {@link #replace(Contact)} on a worker thread.<p/>
      *
-     * <p>Validates the data in the provided Contact object using a {@link ContactValidator} object.<p/>
+     * <p>In asynchronous enrichment mode only area codes already known locally are resolved; for any other the state is
+     * cleared, to be filled in once the Contact has been written.<p/>
      *
-     * @param contact The Contact object to be written to the database using a {@link ContactRepository} object
+     * @param contact The Contact object whose state should be resolved
+     * @return A Uni emitting the same Contact with its state set, or without a state if it is to be enriched later
+     */
+    Uni<Contact> resolveStateAsync(Contact contact) {
+        if (asyncEnrichment) {
+            return Uni.createFrom().item(contact)
+                    .invoke(validator::validateConstraints)
+                    .invoke(c -> {
+                        Area area = areaService.peekAreaById(areaCode(c.getPhoneNumber()));
+                        c.setState(area == null ? null : area.getState());
+                    });
+        }
+        return Uni.createFrom().item(contact)
+                .invoke(validator::validateConstraints)
+                .chain(c -> areaService.getAreaByIdAsync(areaCode(c.getPhoneNumber())))
+                .map(area -> {
+                    contact.setState(area.getState());
+                    return contact;
+                });
+    }
+
+    /**
+     * <p>Writes a Contact whose state has already been resolved (see {@link #resolveStateAsync(Contact)}) to the
+     * application database.<p/>
+     *
+     * @param contact The Contact object to be written to the database
      * @return The Contact object that has been successfully written to the application database
      * @throws ConstraintViolationException, ValidationException, Exception
      */
-    Contact create(Contact contact) throws Exception {
-        log.info("ContactService.create() - Creating " + contact.getFirstName() + " " + contact.getLastName());
+    @Transactional
+    Contact insert(Contact contact) throws Exception {
+        log.info("ContactService.insert() - Creating {} {}", contact.getFirstName(), contact.getLastName());
 
-        // Check to make sure the data fits with the parameters in the Contact model and passes validation.
         validator.validateContact(contact);
 
+        Contact created = crud.create(contact);
 
-
-        //Create client service instance to make REST requests to upstream service
-        try {
-            //Removed temporarily due to non-existing AreaService
-             Area area = areaService.getAreaById(Integer.parseInt(contact.getPhoneNumber().substring(1, 4)));
-             contact.setState(area.getState());
-        } catch (ClientErrorException e) {
-            if (e.getResponse().getStatusInfo() == Response.Status.NOT_FOUND) {
-                throw new InvalidAreaCodeException("The area code provided does not exist", e);
-            } else {
-                throw e;
-            }
+        if (asyncEnrichment && created.getState() == null) {
+            // Delivered to the ContactEnrichmentService once this transaction has committed
+            enrichmentRequests.fire(new StateEnrichmentRequest(created.getId(), areaCode(created.getPhoneNumber())));
         }
-
-        // Write the contact to the database.
-        return crud.create(contact);
+        return created;
     }
 
     /**
-     * <p>Updates an existing Contact object in the application database with the provided Contact object.<p/>
+     * <p>Updates an existing Contact, whose state has already been resolved (see {@link #resolveStateAsync(Contact)}),
+     * in the application database.<p/>
      *
-     * <p>Validates the data in the provided Contact object using a ContactValidator object.<p/>
+     * <p>The stored Contact is only read when its state is needed, i.e. when the new one is still to be enriched.
+     * Otherwise the update is written without reading it first, see {@link ContactRepository#update(Contact)}.<p/>
      *
      * @param contact The Contact object to be passed as an update to the application database
-     * @return The Contact object that has been successfully updated in the application database
-     * @throws ConstraintViolationException, ValidationException, Exception
+     * @return The Contact object that has been successfully updated
+     * @throws javax.persistence.NoResultException If the update is unconditional and no Contact with its id exists
+     * @throws ConstraintViolationException, ValidationException, OptimisticLockException, Exception
      */
-    Contact update(Contact contact) throws Exception {
-        log.info("ContactService.update() - Updating " + contact.getFirstName() + " " + contact.getLastName());
+    @Transactional
+    Contact replace(Contact contact) throws Exception {
+        log.info("ContactService.replace() - Updating {} {}", contact.getFirstName(), contact.getLastName());
 
-        // Check to make sure the data fits with the parameters in the Contact model and passes validation.
         validator.validateContact(contact);
 
-        try {
-            //Removed temporarily due to non-existing AreaService
-            Area area = areaService.getAreaById(Integer.parseInt(contact.getPhoneNumber().substring(1, 4)));
-            contact.setState(area.getState());
-        } catch (ClientErrorException e) {
-            if (e.getResponse().getStatusInfo() == Response.Status.NOT_FOUND) {
-                throw new InvalidAreaCodeException("The area code provided does not exist", e);
+        if (asyncEnrichment && contact.getState() == null) {
+            int areaCode = areaCode(contact.getPhoneNumber());
+            Contact existing = crud.findById(contact.getId());
+            if (existing != null && existing.getState() != null && areaCode == areaCode(existing.getPhoneNumber())) {
+                // Same area code, so the state we already have is still right
+                contact.setState(existing.getState());
             } else {
-                throw e;
+                enrichmentRequests.fire(new StateEnrichmentRequest(contact.getId(), areaCode));
+            }
+            if (existing != null) {
+                // Only read for its state; the Contact written is the one given
+                crud.detach(existing);
             }
         }
 
-        // Either update the contact or add it if it can't be found.
         return crud.update(contact);
     }
 
     /**
-     * <p>Deletes the provided Contact object from the application database if found there.<p/>
+     * <p>Imports Contacts in bulk, a batch of <code>contact.import.batch-size</code> at a time.<p/>
      *
-     * @param contact The Contact object to be removed from the application database
-     * @return The Contact object that has been successfully removed from the application database; or null
-     * @throws Exception
+     * <p>Each batch is validated as a whole (see {@link ContactValidator#validateBatch(List)}), the state of each
+     * distinct area code in it is looked up once, and the valid Contacts are written in one transaction of their own
+     * (see {@link ContactBatchWriter}) using JDBC batch inserts. Invalid Contacts are skipped and recorded in the result; they do not stop the import.<p/>
+     *
+     * <p>Batches that have been written stay written even if a later batch fails. If a Contact cannot be read, the
+     * Contacts read before it are imported before the failure is passed on, and {@link ContactImportResult#getRead()}
+     * gives its position in the request.<p/>
+     *
+     * @param contacts The Contacts to import, in request order
+     * @param result Collects the number of imported Contacts and the rejected ones
+     * @throws RuntimeException As thrown by the iterator, if the next Contact cannot be read
      */
-    Contact delete(Contact contact) throws Exception {
-        log.info("delete() - Deleting " + contact.toString());
+    void importContacts(Iterator<Contact> contacts, ContactImportResult result) {
+        List<Contact> batch = new ArrayList<>(importBatchSize);
+        int offset = 0;
+        while (true) {
+            Contact contact;
+            try {
+                if (!contacts.hasNext()) {
+                    break;
+                }
+                contact = contacts.next();
+            } catch (RuntimeException e) {
+                // Nothing after this point can be read, but the Contacts already read are fine
+                if (!batch.isEmpty()) {
+                    importBatch(batch, offset, result);
+                }
+                throw e;
+            }
+            result.read();
+            // Clear the ID if accidentally set
+            contact.setId(null);
+            batch.add(contact);
+            if (batch.size() == importBatchSize) {
+                importBatch(batch, offset, result);
+                offset += batch.size();
+                batch = new ArrayList<>(importBatchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            importBatch(batch, offset, result);
+        }
+    }
+
+    private void importBatch(List<Contact> batch, int offset, ContactImportResult result) {
+        Map<Integer, Map<String, String>> rejected = validator.validateBatch(batch);
 
-        Contact deletedContact = null;
+        // Look up every distinct area code of the batch once, before the transaction starts
+        Map<Integer, String> states = new HashMap<>();
+        Map<Integer, Map<String, String>> areaErrors = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (rejected.containsKey(i)) {
+                continue;
+            }
+            int areaCode = areaCode(batch.get(i).getPhoneNumber());
+            if (!states.containsKey(areaCode) && !areaErrors.containsKey(areaCode)) {
+                Map<String, String> reasons = new HashMap<>();
+                try {
+                    states.put(areaCode, areaService.getAreaById(areaCode).getState());
+                } catch (InvalidAreaCodeException e) {
+                    reasons.put("area_code", "The telephone area code provided is not recognised, please provide another");
+                    areaErrors.put(areaCode, reasons);
+                } catch (AreaServiceUnavailableException e) {
+                    reasons.put("area_code", "The telephone area code cannot be verified at the moment, please try again later");
+                    areaErrors.put(areaCode, reasons);
+                }
+            }
+        }
+
+        List<Contact> valid = new ArrayList<>(batch.size());
+        List<Integer> validIndexes = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Contact contact = batch.get(i);
+            Map<String, String> reasons = rejected.get(i);
+            if (reasons == null) {
+                int areaCode = areaCode(contact.getPhoneNumber());
+                reasons = areaErrors.get(areaCode);
+                contact.setState(states.get(areaCode));
+            }
+            if (reasons == null) {
+                valid.add(contact);
+                validIndexes.add(offset + i);
+            } else {
+                result.reject(offset + i, reasons);
+            }
+        }
 
-        if (contact.getId() != null) {
-            deletedContact = crud.delete(contact);
-        } else {
-            log.info("delete() - No ID was found so can't Delete.");
+        if (valid.isEmpty()) {
+            return;
         }
+        try {
+            batchWriter.insertAll(valid);
+            result.imported(valid.size());
+        } catch (PersistenceException e) {
+            // Most likely an email taken by a concurrent write since the batch was validated
+            log.warning("ContactService.importBatch() - Batch starting at {} rolled back", offset, e);
+            Map<String, String> reasons = new HashMap<>();
+            reasons.put("batch", "The batch containing this Contact could not be written, please try again");
+            for (int index : validIndexes) {
+                result.reject(index, reasons);
+            }
+        }
+    }
+
+    /**
+     * <p>Sets the state of the given Contacts, as long as their phone number still has the given area code.<p/>
+     *
+     * @param ids The ids of the Contacts to update
+     * @param areaCode The area code the state was looked up for
+     * @param state The state to set
+     * @return The number of Contacts updated
+     */
+    @Transactional
+    int updateState(Collection<Long> ids, int areaCode, String state) {
+        return crud.updateState(ids, areaCode, state);
+    }
+
+    /**
+     * <p>Extracts the 3 digit area code from a phone number of the form "(201) 123-4567".<p/>
+     */
+    static int areaCode(String phoneNumber) {
+        return Integer.parseInt(phoneNumber.substring(1, 4));
+    }
+
+    /**
+     * <p>Deletes the Contact with the given id from the application database if found there.<p/>
+     *
+     * @param id The id of the Contact to be removed from the application database
+     * @return Whether a Contact has been removed from the application database
+     * @throws Exception
+     */
+    boolean delete(Long id) throws Exception {
+        log.info("delete() - Deleting Contact {}", id);
 
-        return deletedContact;
+        return crud.deleteById(id);
     }
 }
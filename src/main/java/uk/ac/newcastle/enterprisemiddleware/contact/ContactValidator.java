@@ -2,12 +2,14 @@ package uk.ac.newcastle.enterprisemiddleware.contact;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import javax.persistence.NoResultException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 import javax.validation.Validator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -40,50 +42,89 @@ public class ContactValidator {
      * @throws ValidationException If contact with the same email already exists
      */
     void validateContact(Contact contact) throws ConstraintViolationException, ValidationException {
+        validateConstraints(contact);
+
+        // Check the uniqueness of the email address
+        if (emailAlreadyExists(contact.getEmail(), contact.getId())) {
+            throw new UniqueEmailException("Unique Email Violation");
+        }
+    }
+
+    /**
+     * <p>Runs only the standard bean validation checks on the given Contact object. Unlike
+     * {@link #validateContact(Contact)} this does not touch the database, so it is safe to call from a non-blocking
+     * thread.</p>
+     *
+     * @param contact The Contact object to be validated
+     * @throws ConstraintViolationException If Bean Validation errors exist
+     */
+    void validateConstraints(Contact contact) throws ConstraintViolationException {
         // Create a bean validator and check for issues.
         Set<ConstraintViolation<Contact>> violations = validator.validate(contact);
 
         if (!violations.isEmpty()) {
             throw new ConstraintViolationException(new HashSet<ConstraintViolation<?>>(violations));
         }
+    }
 
-        // Check the uniqueness of the email address
-        if (emailAlreadyExists(contact.getEmail(), contact.getId())) {
-            throw new UniqueEmailException("Unique Email Violation");
+    /**
+     * <p>Validates a batch of Contacts for a bulk import, without stopping at the first invalid one.</p>
+     *
+     * <p>Each Contact is checked against its Bean Validation constraints, and its email must be unique both within the
+     * batch and in the database. The database is asked once for the whole batch rather than once per Contact.</p>
+     *
+     * @param contacts The Contacts to validate
+     * @return The reasons each invalid Contact was rejected, keyed by its position in the list
+     */
+    Map<Integer, Map<String, String>> validateBatch(List<Contact> contacts) {
+        Map<Integer, Map<String, String>> rejected = new HashMap<>();
+        Set<String> emails = new HashSet<>();
+
+        for (int i = 0; i < contacts.size(); i++) {
+            Contact contact = contacts.get(i);
+            Set<ConstraintViolation<Contact>> violations = validator.validate(contact);
+            if (!violations.isEmpty()) {
+                Map<String, String> reasons = new HashMap<>();
+                for (ConstraintViolation<Contact> violation : violations) {
+                    reasons.put(violation.getPropertyPath().toString(), violation.getMessage());
+                }
+                rejected.put(i, reasons);
+            } else if (!emails.add(contact.getEmail())) {
+                rejected.put(i, uniqueEmailReason());
+            }
         }
+
+        if (!emails.isEmpty()) {
+            Set<String> existing = new HashSet<>(crud.findExistingEmails(emails));
+            for (int i = 0; i < contacts.size(); i++) {
+                if (!rejected.containsKey(i) && existing.contains(contacts.get(i).getEmail())) {
+                    rejected.put(i, uniqueEmailReason());
+                }
+            }
+        }
+        return rejected;
+    }
+
+    private static Map<String, String> uniqueEmailReason() {
+        Map<String, String> reasons = new HashMap<>();
+        reasons.put("email", "That email is already used, please use a unique email");
+        return reasons;
     }
 
     /**
      * <p>Checks if a contact with the same email address is already registered. This is the only way to easily capture the
      * "@UniqueConstraint(columnNames = "email")" constraint from the Contact class.</p>
      *
-     * <p>Since Update will being using an email that is already in the database we need to make sure that it is the email
-     * from the record being updated.</p>
+     * <p>Since Update will being using an email that is already in the database, the record being updated is left out of
+     * the check. This is a single query; the unique constraint itself still rejects a duplicate written concurrently
+     * between the check and the insert.</p>
      *
      * @param email The email to check is unique
      * @param id The user id to check the email against if it was found
      * @return boolean which represents whether the email was found, and if so if it belongs to the user with id
      */
     boolean emailAlreadyExists(String email, Long id) {
-        Contact contact = null;
-        Contact contactWithID = null;
-        try {
-            contact = crud.findByEmail(email);
-        } catch (NoResultException e) {
-            // ignore
-        }
-
-        if (contact != null && id != null) {
-            try {
-                contactWithID = crud.findById(id);
-                if (contactWithID != null && contactWithID.getEmail().equals(email)) {
-                    contact = null;
-                }
-            } catch (NoResultException e) {
-                // ignore
-            }
-        }
-        return contact != null;
+        return crud.emailExists(email, id);
     }
 }
 
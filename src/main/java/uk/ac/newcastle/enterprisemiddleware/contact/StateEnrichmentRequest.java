@@ -0,0 +1,61 @@
+package uk.ac.newcastle.enterprisemiddleware.contact;
+
+/**
+ * <p>Asks the {@link ContactEnrichmentService} to fill in the state of a persisted Contact from the area code of its
+ * phone number.</p>
+ *
+ * <p>It is fired as a CDI event by {@link ContactService} and only delivered once the transaction that wrote the
+ * Contact has committed. The same object is kept in the pending queue and counts the failed attempts, along with the
+ * earliest time the next attempt may be made.</p>
+ */
+public class StateEnrichmentRequest {
+
+    private final Long contactId;
+    private final int areaCode;
+    private final int attempts;
+    private final long notBefore;
+
+    public StateEnrichmentRequest(Long contactId, int areaCode) {
+        this(contactId, areaCode, 0, 0);
+    }
+
+    private StateEnrichmentRequest(Long contactId, int areaCode, int attempts, long notBefore) {
+        this.contactId = contactId;
+        this.areaCode = areaCode;
+        this.attempts = attempts;
+        this.notBefore = notBefore;
+    }
+
+    public Long getContactId() {
+        return contactId;
+    }
+
+    public int getAreaCode() {
+        return areaCode;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @param now The current time, in milliseconds since the epoch
+     * @return Whether the next attempt may be made at the given time
+     */
+    boolean isDue(long now) {
+        return now >= notBefore;
+    }
+
+    /**
+     * @param notBefore The earliest time the next attempt may be made, in milliseconds since the epoch
+     * @return A copy of this request with one more failed attempt
+     */
+    StateEnrichmentRequest retry(long notBefore) {
+        return new StateEnrichmentRequest(contactId, areaCode, attempts + 1, notBefore);
+    }
+
+    @Override
+    public String toString() {
+        return "StateEnrichmentRequest{contactId=" + contactId + ", areaCode=" + areaCode + ", attempts=" + attempts + "}";
+    }
+}
@@ -1,6 +1,10 @@
 package uk.ac.newcastle.enterprisemiddleware.restaurant;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 import uk.ac.newcastle.enterprisemiddleware.review.Review;
 
 import javax.persistence.*;
@@ -13,20 +17,39 @@ import java.util.List;
 import java.util.Objects;
 
 @Entity
+@Cacheable
 @NamedQueries({
-        @NamedQuery(name = Restaurant.FIND_ALL, query = "SELECT r FROM Restaurant r ORDER BY r.name ASC")
+        @NamedQuery(name = Restaurant.FIND_ALL, query = "SELECT r FROM Restaurant r ORDER BY r.name ASC, r.id ASC"),
+        @NamedQuery(name = Restaurant.FIND_ALL_AFTER, query = "SELECT r FROM Restaurant r WHERE r.name > :name OR (r.name = :name AND r.id > :id) "
+                + "ORDER BY r.name ASC, r.id ASC"),
+        @NamedQuery(name = Restaurant.PHONE_NUMBER_EXISTS, query = "SELECT 1 FROM Restaurant r WHERE r.phoneNumber = :phoneNumber "
+                + "AND (:id IS NULL OR r.id <> :id)"),
+        @NamedQuery(name = Restaurant.DELETE_BY_ID, query = "DELETE FROM Restaurant r WHERE r.id = :id")
 })
 @XmlRootElement
-@Table(name = "restaurants", uniqueConstraints = @UniqueConstraint(columnNames = "phoneNumber"))
+@Table(name = "restaurants", indexes = @Index(name = "idx_restaurants_name", columnList = "name, id"),
+        uniqueConstraints = @UniqueConstraint(columnNames = "phoneNumber"))
 public class Restaurant implements Serializable {
     private static final long serialVersionUID = 1L;
 
     public static final String FIND_ALL = "Restaurant.findAll";
+    public static final String FIND_ALL_AFTER = "Restaurant.findAllAfter";
+    public static final String PHONE_NUMBER_EXISTS = "Restaurant.phoneNumberExists";
+    public static final String DELETE_BY_ID = "Restaurant.deleteById";
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "restaurants_seq")
+    @GenericGenerator(name = "restaurants_seq", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+            @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "restaurants_seq"),
+            @Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = "50"),
+            @Parameter(name = SequenceStyleGenerator.OPT_PARAM, value = "pooled-lo")
+    })
     private Long id;
 
+    @Version
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
+
     @NotNull
     @Size(min = 1, max = 50)
     @Pattern(regexp = "[A-Za-z-']+", message = "Please use a name without numbers or specials")
@@ -50,6 +73,14 @@ public class Restaurant implements Serializable {
         this.id = id;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public String getName() {
         return name;
     }
@@ -74,8 +105,8 @@ public class Restaurant implements Serializable {
         this.postcode = postcode;
     }
 
-    // Cascade Deletion
-    @OneToMany(mappedBy = "restaurant", cascade = CascadeType.ALL, orphanRemoval = true)
+    // Not cascaded: the Reviews are removed with a single bulk DELETE, see ReviewRepository
+    @OneToMany(mappedBy = "restaurant")
     @JsonIgnore
     private List<Review> reviews;
     public List<Review> getReviews() {
@@ -0,0 +1,152 @@
+package uk.ac.newcastle.enterprisemiddleware.restaurant;
+
+import io.quarkus.runtime.StartupEvent;
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.control.ActivateRequestContext;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * <p>In-memory ranking of the Restaurants by average rating, best first.</p>
+ *
+ * <p>The ranking is a skip list ordered by average rating, then by number of Reviews (more first), then by Restaurant
+ * id. Reading the top of it only walks as many entries as are returned, plus those skipped for having too few Reviews,
+ * however many Restaurants and Reviews there are.</p>
+ *
+ * <p>It is loaded from the rating totals at startup, then kept up to date from the {@link RestaurantRatingChanged}
+ * events of committed transactions. Only Restaurants with at least one Review are ranked.</p>
+ *
+ * <p>Events may be handled out of order, so a removal can arrive before the addition it undoes. The running totals of
+ * each Restaurant are therefore kept even while they are zero or negative, and the Restaurant is only left out of the
+ * ranking until they add up to at least one Review again.</p>
+ */
+@ApplicationScoped
+public class RestaurantLeaderboard {
+
+    private static final Comparator<Entry> RANKING = Comparator
+            .comparingDouble(Entry::getAverage).reversed()
+            .thenComparing(Comparator.comparingLong(Entry::getReviewCount).reversed())
+            .thenComparing(Entry::getRestaurantId);
+
+    @Inject
+    @Named("logger")
+    Log log;
+
+    @Inject
+    RestaurantRatingRepository ratingRepository;
+
+    private final ConcurrentSkipListSet<Entry> ranking = new ConcurrentSkipListSet<>(RANKING);
+
+    // The running totals of each Restaurant, ranked or not, so that its entry can be found and taken out of the ranking
+    private final ConcurrentMap<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * <p>Loads the ranking from the rating totals.</p>
+     */
+    @ActivateRequestContext
+    void onStart(@Observes StartupEvent event) {
+        for (RestaurantRatingStats stats : ratingRepository.findAllRated()) {
+            update(stats.getRestaurantId(), stats.getReviewCount(), stats.getRatingSum());
+        }
+        log.info("RestaurantLeaderboard.onStart() - Ranked {} Restaurants", ranking.size());
+    }
+
+    /**
+     * <p>Applies a change of rating totals once the transaction that made it has committed.</p>
+     *
+     * @param change The change to apply
+     */
+    void onRatingChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS) RestaurantRatingChanged change) {
+        if (change.isDeleted()) {
+            Entry removed = entries.remove(change.getRestaurantId());
+            if (removed != null) {
+                ranking.remove(removed);
+            }
+            return;
+        }
+        update(change.getRestaurantId(), change.getReviewCountDelta(), change.getRatingSumDelta());
+    }
+
+    private void update(Long restaurantId, long reviewCountDelta, long ratingSumDelta) {
+        // compute() runs one update per Restaurant at a time, so the entry is never replaced twice concurrently
+        entries.compute(restaurantId, (id, previous) -> {
+            long reviewCount = reviewCountDelta;
+            long ratingSum = ratingSumDelta;
+            if (previous != null) {
+                ranking.remove(previous);
+                reviewCount += previous.getReviewCount();
+                ratingSum += previous.getRatingSum();
+            }
+            if (reviewCount == 0 && ratingSum == 0) {
+                return null;
+            }
+            Entry next = new Entry(id, reviewCount, ratingSum);
+            if (reviewCount > 0) {
+                ranking.add(next);
+            }
+            return next;
+        });
+    }
+
+    /**
+     * <p>Returns the best rated Restaurants.</p>
+     *
+     * @param n The maximum number of Restaurants to return
+     * @param minReviews The number of Reviews a Restaurant needs to be ranked
+     * @return Up to n Restaurants, best rated first
+     */
+    public List<Entry> top(int n, long minReviews) {
+        List<Entry> top = new ArrayList<>(n);
+        for (Entry entry : ranking) {
+            if (top.size() == n) {
+                break;
+            }
+            if (entry.getReviewCount() >= minReviews) {
+                top.add(entry);
+            }
+        }
+        return top;
+    }
+
+    /**
+     * <p>The rating of one ranked Restaurant.</p>
+     */
+    public static class Entry {
+
+        private final Long restaurantId;
+        private final long reviewCount;
+        private final long ratingSum;
+
+        Entry(Long restaurantId, long reviewCount, long ratingSum) {
+            this.restaurantId = restaurantId;
+            this.reviewCount = reviewCount;
+            this.ratingSum = ratingSum;
+        }
+
+        public Long getRestaurantId() {
+            return restaurantId;
+        }
+
+        public long getReviewCount() {
+            return reviewCount;
+        }
+
+        public long getRatingSum() {
+            return ratingSum;
+        }
+
+        public double getAverage() {
+            return (double) ratingSum / reviewCount;
+        }
+    }
+}
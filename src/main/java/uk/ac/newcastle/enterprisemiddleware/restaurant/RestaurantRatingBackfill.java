@@ -0,0 +1,51 @@
+package uk.ac.newcastle.enterprisemiddleware.restaurant;
+
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.transaction.Transactional;
+
+/**
+ * <p>Creates the missing {@link RestaurantRatingStats} row of a Restaurant, e.g. one created before the table existed,
+ * from its committed Reviews.</p>
+ *
+ * <p>The row is created in a transaction of its own, so two transactions finding it missing at the same time cannot
+ * both insert it: the second one fails on the primary key without affecting the transaction that called it, and can
+ * simply go on with the row the first one created. Reviews written or removed by the calling transaction are not yet
+ * committed, so the row leaves them out and the caller applies them as a delta on top of it.</p>
+ *
+ * <p>This is a bean of its own so that {@link RestaurantRatingService} calls it through its client proxy, and the
+ * new transaction is started by the transaction interceptor.</p>
+ */
+@ApplicationScoped
+public class RestaurantRatingBackfill {
+
+    @Inject
+    @Named("logger")
+    Log log;
+
+    @Inject
+    RestaurantRatingRepository ratingRepository;
+
+    @Inject
+    Event<RestaurantRatingChanged> ratingChanges;
+
+    /**
+     * @param restaurantId The Restaurant with no totals row
+     * @throws javax.persistence.PersistenceException If the row has been created by someone else in the meantime
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    void create(Long restaurantId) {
+        log.info("RestaurantRatingBackfill.create() - No rating totals for Restaurant {}, rebuilding them", restaurantId);
+
+        RestaurantRatingStats stats = ratingRepository.create(ratingRepository.compute(restaurantId));
+        // Report a row inserted concurrently here rather than at commit
+        ratingRepository.flush();
+
+        // The leaderboard has only been told about changes made since the row existed, i.e. none
+        ratingChanges.fire(RestaurantRatingChanged.delta(restaurantId, stats.getReviewCount(), stats.getRatingSum()));
+    }
+}
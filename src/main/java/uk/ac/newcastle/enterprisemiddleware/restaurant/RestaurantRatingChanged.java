@@ -0,0 +1,59 @@
+package uk.ac.newcastle.enterprisemiddleware.restaurant;
+
+/**
+ * <p>Tells the {@link RestaurantLeaderboard} that the rating totals of a Restaurant have changed.</p>
+ *
+ * <p>It is fired as a CDI event by {@link RestaurantRatingService} and only delivered once the transaction that changed
+ * the totals has committed. It carries the change rather than the new totals, so events handled out of order still
+ * add up to the right result.</p>
+ */
+public class RestaurantRatingChanged {
+
+    private final Long restaurantId;
+    private final long reviewCountDelta;
+    private final long ratingSumDelta;
+    private final boolean deleted;
+
+    private RestaurantRatingChanged(Long restaurantId, long reviewCountDelta, long ratingSumDelta, boolean deleted) {
+        this.restaurantId = restaurantId;
+        this.reviewCountDelta = reviewCountDelta;
+        this.ratingSumDelta = ratingSumDelta;
+        this.deleted = deleted;
+    }
+
+    /**
+     * @return An event adding the given number of Reviews and rating points to the totals of a Restaurant
+     */
+    static RestaurantRatingChanged delta(Long restaurantId, long reviewCountDelta, long ratingSumDelta) {
+        return new RestaurantRatingChanged(restaurantId, reviewCountDelta, ratingSumDelta, false);
+    }
+
+    /**
+     * @return An event removing a deleted Restaurant
+     */
+    static RestaurantRatingChanged deleted(Long restaurantId) {
+        return new RestaurantRatingChanged(restaurantId, 0, 0, true);
+    }
+
+    public Long getRestaurantId() {
+        return restaurantId;
+    }
+
+    public long getReviewCountDelta() {
+        return reviewCountDelta;
+    }
+
+    public long getRatingSumDelta() {
+        return ratingSumDelta;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    @Override
+    public String toString() {
+        return "RestaurantRatingChanged{restaurantId=" + restaurantId + ", reviewCountDelta=" + reviewCountDelta
+                + ", ratingSumDelta=" + ratingSumDelta + ", deleted=" + deleted + "}";
+    }
+}
@@ -0,0 +1,83 @@
+package uk.ac.newcastle.enterprisemiddleware.restaurant;
+
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
+
+import javax.enterprise.context.RequestScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import java.util.List;
+
+@RequestScoped
+public class RestaurantRatingRepository {
+
+    @Inject
+    @Named("logger")
+    Log log;
+
+    @Inject
+    EntityManager em;
+
+    RestaurantRatingStats findByRestaurantId(Long restaurantId) {
+        return em.find(RestaurantRatingStats.class, restaurantId);
+    }
+
+    List<RestaurantRatingStats> findAllRated() {
+        return em.createNamedQuery(RestaurantRatingStats.FIND_ALL_RATED, RestaurantRatingStats.class).getResultList();
+    }
+
+    /**
+     * Adds count Reviews with the given rating to the totals of a Restaurant, in a single UPDATE so that concurrent
+     * writers never lose each other's changes. A negative count removes Reviews.
+     *
+     * @return false if the Restaurant has no totals row yet
+     */
+    boolean applyDelta(Long restaurantId, int rating, long count) {
+        if (rating < 0 || rating > RestaurantRatingStats.MAX_RATING) {
+            throw new IllegalArgumentException("Rating out of range: " + rating);
+        }
+        String bucket = "s.rating" + rating;
+        int updated = em.createQuery("UPDATE RestaurantRatingStats s SET s.reviewCount = s.reviewCount + :count, "
+                        + "s.ratingSum = s.ratingSum + :sum, " + bucket + " = " + bucket + " + :count "
+                        + "WHERE s.restaurantId = :restaurantId")
+                .setParameter("count", count)
+                .setParameter("sum", rating * count)
+                .setParameter("restaurantId", restaurantId)
+                .executeUpdate();
+        return updated == 1;
+    }
+
+    /**
+     * Aggregates the Reviews of a Restaurant into a new, unsaved totals row.
+     */
+    RestaurantRatingStats compute(Long restaurantId) {
+        RestaurantRatingStats stats = new RestaurantRatingStats(restaurantId);
+        List<Object[]> rows = em.createNamedQuery(RestaurantRatingStats.COUNT_BY_RATING, Object[].class)
+                .setParameter("restaurantId", restaurantId)
+                .getResultList();
+        for (Object[] row : rows) {
+            stats.add((Integer) row[0], (Long) row[1]);
+        }
+        return stats;
+    }
+
+    RestaurantRatingStats create(RestaurantRatingStats stats) {
+        log.info("RestaurantRatingRepository.create() - Creating rating totals for Restaurant {}", stats.getRestaurantId());
+
+        em.persist(stats);
+
+        return stats;
+    }
+
+    void flush() {
+        em.flush();
+    }
+
+    void delete(Long restaurantId) {
+        log.info("RestaurantRatingRepository.delete() - Deleting rating totals for Restaurant {}", restaurantId);
+
+        em.createNamedQuery(RestaurantRatingStats.DELETE_BY_RESTAURANT)
+                .setParameter("restaurantId", restaurantId)
+                .executeUpdate();
+    }
+}
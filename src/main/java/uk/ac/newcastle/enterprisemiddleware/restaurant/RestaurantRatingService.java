@@ -0,0 +1,122 @@
+package uk.ac.newcastle.enterprisemiddleware.restaurant;
+
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
+
+import javax.enterprise.context.Dependent;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.PersistenceException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Keeps the {@link RestaurantRatingStats} of each Restaurant in step with its Reviews.</p>
+ *
+ * <p>Every Review written or removed is applied to the totals as a delta inside the same transaction, so the totals
+ * are always consistent with the Reviews table and reading them never touches the Reviews. A Restaurant that has no
+ * totals row yet (e.g. one created before the table existed) gets one aggregated from its committed Reviews the first
+ * time a Review of it changes, see {@link RestaurantRatingBackfill}, and the delta is then applied to that.</p>
+ *
+ * <p>Each change is also fired as a {@link RestaurantRatingChanged} event for the {@link RestaurantLeaderboard}.</p>
+ */
+@Dependent
+public class RestaurantRatingService {
+
+    @Inject
+    @Named("logger")
+    Log log;
+
+    @Inject
+    RestaurantRatingRepository ratingRepository;
+
+    @Inject
+    Event<RestaurantRatingChanged> ratingChanges;
+
+    @Inject
+    RestaurantLeaderboard leaderboard;
+
+    @Inject
+    RestaurantRatingBackfill backfill;
+
+    /**
+     * @return The rating totals of the Restaurant
+     */
+    RestaurantRatingStats findByRestaurantId(Long restaurantId) {
+        RestaurantRatingStats stats = ratingRepository.findByRestaurantId(restaurantId);
+        return stats != null ? stats : ratingRepository.compute(restaurantId);
+    }
+
+    /**
+     * <p>Starts the totals of a new Restaurant at zero.</p>
+     */
+    void create(Long restaurantId) {
+        ratingRepository.create(new RestaurantRatingStats(restaurantId));
+    }
+
+    /**
+     * <p>Deletes the totals of a Restaurant that has just been deleted, and takes it off the leaderboard.</p>
+     */
+    void delete(Long restaurantId) {
+        ratingRepository.delete(restaurantId);
+        ratingChanges.fire(RestaurantRatingChanged.deleted(restaurantId));
+    }
+
+    /**
+     * @param n The maximum number of Restaurants to return
+     * @param minReviews The number of Reviews a Restaurant needs to be ranked
+     * @return Up to n Restaurants, best rated first
+     */
+    List<RestaurantLeaderboard.Entry> findTopRated(int n, long minReviews) {
+        return leaderboard.top(n, minReviews);
+    }
+
+    /**
+     * <p>Counts a Review that has just been written.</p>
+     *
+     * @param restaurantId The Restaurant reviewed
+     * @param rating The rating given
+     */
+    public void reviewAdded(Long restaurantId, int rating) {
+        apply(restaurantId, rating, 1);
+    }
+
+    /**
+     * <p>Discounts a Review that has just been removed.</p>
+     *
+     * @param restaurantId The Restaurant reviewed
+     * @param rating The rating given
+     */
+    public void reviewRemoved(Long restaurantId, int rating) {
+        apply(restaurantId, rating, -1);
+    }
+
+    /**
+     * <p>Discounts all the Reviews of a Restaurant removed at once, e.g. those of a deleted User.</p>
+     *
+     * @param restaurantId The Restaurant reviewed
+     * @param countByRating The number of Reviews removed for each rating
+     */
+    public void reviewsRemoved(Long restaurantId, Map<Integer, Long> countByRating) {
+        for (Map.Entry<Integer, Long> removed : countByRating.entrySet()) {
+            apply(restaurantId, removed.getKey(), -removed.getValue());
+        }
+    }
+
+    private void apply(Long restaurantId, int rating, long count) {
+        if (!ratingRepository.applyDelta(restaurantId, rating, count)) {
+            rebuild(restaurantId);
+            // The rebuilt row only holds committed Reviews, so this change still has to be applied to it
+            ratingRepository.applyDelta(restaurantId, rating, count);
+        }
+        ratingChanges.fire(RestaurantRatingChanged.delta(restaurantId, count, rating * count));
+    }
+
+    private void rebuild(Long restaurantId) {
+        try {
+            backfill.create(restaurantId);
+        } catch (PersistenceException e) {
+            log.fine("RestaurantRatingService.rebuild() - Rating totals for Restaurant {} created concurrently", restaurantId);
+        }
+    }
+}
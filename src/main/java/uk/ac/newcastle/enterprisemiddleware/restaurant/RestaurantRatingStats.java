@@ -0,0 +1,108 @@
+package uk.ac.newcastle.enterprisemiddleware.restaurant;
+
+import javax.persistence.*;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.io.Serializable;
+
+/**
+ * <p>Running totals of the Reviews of one Restaurant: how many there are, the sum of their ratings, and how many
+ * gave each rating from 0 to 5.</p>
+ *
+ * <p>The row is kept up to date by {@link RestaurantRatingService} as Reviews are written, so the rating of a
+ * Restaurant is read with a primary key lookup instead of aggregating its Reviews.</p>
+ */
+@Entity
+@NamedQueries({
+        @NamedQuery(name = RestaurantRatingStats.FIND_ALL_RATED, query = "SELECT s FROM RestaurantRatingStats s WHERE s.reviewCount > 0"),
+        @NamedQuery(name = RestaurantRatingStats.COUNT_BY_RATING, query = "SELECT r.rating, COUNT(r) FROM Review r "
+                + "WHERE r.restaurant.id = :restaurantId GROUP BY r.rating"),
+        @NamedQuery(name = RestaurantRatingStats.DELETE_BY_RESTAURANT, query = "DELETE FROM RestaurantRatingStats s "
+                + "WHERE s.restaurantId = :restaurantId")
+})
+@XmlRootElement
+@Table(name = "restaurant_rating_stats")
+public class RestaurantRatingStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final String FIND_ALL_RATED = "RestaurantRatingStats.findAllRated";
+    public static final String COUNT_BY_RATING = "RestaurantRatingStats.countByRating";
+    public static final String DELETE_BY_RESTAURANT = "RestaurantRatingStats.deleteByRestaurant";
+
+    public static final int MAX_RATING = 5;
+
+    @Id
+    @Column(name = "restaurant_id")
+    private Long restaurantId;
+
+    @Column(name = "review_count", nullable = false)
+    private long reviewCount;
+
+    @Column(name = "rating_sum", nullable = false)
+    private long ratingSum;
+
+    // One column per rating, named rating<n> so that RestaurantRatingRepository can address them
+    @Column(name = "rating_0", nullable = false)
+    private long rating0;
+
+    @Column(name = "rating_1", nullable = false)
+    private long rating1;
+
+    @Column(name = "rating_2", nullable = false)
+    private long rating2;
+
+    @Column(name = "rating_3", nullable = false)
+    private long rating3;
+
+    @Column(name = "rating_4", nullable = false)
+    private long rating4;
+
+    @Column(name = "rating_5", nullable = false)
+    private long rating5;
+
+    public RestaurantRatingStats() {
+    }
+
+    public RestaurantRatingStats(Long restaurantId) {
+        this.restaurantId = restaurantId;
+    }
+
+    public Long getRestaurantId() {
+        return restaurantId;
+    }
+
+    public long getReviewCount() {
+        return reviewCount;
+    }
+
+    public long getRatingSum() {
+        return ratingSum;
+    }
+
+    /**
+     * @return The mean rating, or null if the Restaurant has no Reviews
+     */
+    public Double getAverage() {
+        return reviewCount == 0 ? null : (double) ratingSum / reviewCount;
+    }
+
+    /**
+     * @return The number of Reviews giving each rating, indexed by rating
+     */
+    public long[] getHistogram() {
+        return new long[] {rating0, rating1, rating2, rating3, rating4, rating5};
+    }
+
+    void add(int rating, long count) {
+        reviewCount += count;
+        ratingSum += rating * count;
+        switch (rating) {
+            case 0: rating0 += count; break;
+            case 1: rating1 += count; break;
+            case 2: rating2 += count; break;
+            case 3: rating3 += count; break;
+            case 4: rating4 += count; break;
+            case 5: rating5 += count; break;
+            default: throw new IllegalArgumentException("Rating out of range: " + rating);
+        }
+    }
+}
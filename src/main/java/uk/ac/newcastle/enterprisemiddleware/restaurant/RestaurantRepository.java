@@ -1,5 +1,8 @@
 package uk.ac.newcastle.enterprisemiddleware.restaurant;
 
+import org.hibernate.Session;
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
+
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -11,21 +14,27 @@ import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolationException;
 import java.util.List;
-import java.util.logging.Logger;
 
 @RequestScoped
 public class RestaurantRepository {
 
     @Inject
     @Named("logger")
-    Logger log;
+    Log log;
 
     @Inject
     EntityManager em;
 
-    List<Restaurant> findAllOrderedByName() {
-        TypedQuery<Restaurant> query = em.createNamedQuery(Restaurant.FIND_ALL, Restaurant.class);
-        return query.getResultList();
+    List<Restaurant> findAllOrderedByName(String name, Long id, int limit) {
+        TypedQuery<Restaurant> query;
+        if (id == null) {
+            query = em.createNamedQuery(Restaurant.FIND_ALL, Restaurant.class);
+        } else {
+            query = em.createNamedQuery(Restaurant.FIND_ALL_AFTER, Restaurant.class)
+                    .setParameter("name", name)
+                    .setParameter("id", id);
+        }
+        return query.setMaxResults(limit).getResultList();
     }
 
     Restaurant findById(Long id) {
@@ -40,6 +49,15 @@ public class RestaurantRepository {
         return em.createQuery(criteria).getResultList();
     }
 
+    boolean phoneNumberExists(String phoneNumber, Long excludeId) {
+        return !em.createNamedQuery(Restaurant.PHONE_NUMBER_EXISTS)
+                .setParameter("phoneNumber", phoneNumber)
+                .setParameter("id", excludeId)
+                .setMaxResults(1)
+                .getResultList()
+                .isEmpty();
+    }
+
     public Restaurant findByPhoneNumber(String phoneNumber) {
         CriteriaBuilder cb = em.getCriteriaBuilder();
         CriteriaQuery<Restaurant> criteria = cb.createQuery(Restaurant.class);
@@ -54,7 +72,7 @@ public class RestaurantRepository {
     }
 
     Restaurant create(Restaurant restaurant) throws Exception {
-        log.info("RestaurantRepository.create() - Creating " + restaurant.getName());
+        log.info("RestaurantRepository.create() - Creating {}", restaurant.getName());
 
         em.persist(restaurant);
 
@@ -62,23 +80,36 @@ public class RestaurantRepository {
     }
 
     Restaurant update(Restaurant restaurant) throws Exception {
-        log.info("RestaurantRepository.update() - Updating " + restaurant.getName());
+        log.info("RestaurantRepository.update() - Updating {}", restaurant.getName());
+
+        if (restaurant.getVersion() != null) {
+            // Reattached as it is, without reading the stored Restaurant: the flush is the only statement, and matches no row
+            // if the Restaurant has changed or gone since that version
+            em.unwrap(Session.class).update(restaurant);
+            em.flush();
+            return restaurant;
+        }
 
-        em.merge(restaurant);
+        // Otherwise the update applies on top of the current version, and merge() reuses the Restaurant found here
+        Restaurant current = em.find(Restaurant.class, restaurant.getId());
+        if (current == null) {
+            throw new NoResultException("No Restaurant with the id " + restaurant.getId());
+        }
+        restaurant.setVersion(current.getVersion());
 
-        return restaurant;
-    }
+        Restaurant updated = em.merge(restaurant);
+        em.flush();
 
-    Restaurant delete(Restaurant restaurant) throws Exception {
-        log.info("RestaurantRepository.delete() - Deleting " + restaurant.getName());
+        return updated;
+    }
 
-        if (restaurant.getId() != null) {
-            em.remove(em.merge(restaurant));
-        } else {
-            log.info("RestaurantRepository.delete() - No ID was found so can't Delete.");
-        }
+    /**
+     * @return Whether there was a Restaurant with the id to delete
+     */
+    boolean deleteById(Long id) throws Exception {
+        log.info("RestaurantRepository.deleteById() - Deleting Restaurant {}", id);
 
-        return restaurant;
+        return em.createNamedQuery(Restaurant.DELETE_BY_ID).setParameter("id", id).executeUpdate() > 0;
     }
 
 }
@@ -7,38 +7,59 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.jboss.resteasy.reactive.Cache;
 import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
+import uk.ac.newcastle.enterprisemiddleware.review.Review;
+import uk.ac.newcastle.enterprisemiddleware.util.ETags;
+import uk.ac.newcastle.enterprisemiddleware.util.KeysetPage;
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
 import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.NoResultException;
+import javax.persistence.OptimisticLockException;
 import javax.transaction.Transactional;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Logger;
 
 @Path("/restaurants")
 @Consumes(MediaType.APPLICATION_JSON)
 @Produces(MediaType.APPLICATION_JSON)
 public class RestaurantRestService {
+    private static final int MAX_TOP = 100;
+
     @Inject
     @Named("logger")
-    Logger log;
+    Log log;
 
     @Inject
     RestaurantService service;
 
     @GET
-    @Operation(summary = "Fetch all Restaurants", description = "Returns a JSON array of all stored Restaurant objects.")
-    public Response retrieveAllRestaurants() {
-        List<Restaurant> restaurants = service.findAllOrderedByName();
-        return Response.ok(restaurants).build();
+    @Operation(summary = "Fetch all Restaurants", description = "Returns a JSON array of stored Restaurant objects, a page at a time.")
+    public Response retrieveAllRestaurants(
+            @Parameter(description = "Cursor from the Link rel=\"next\" header of the previous page")
+            @QueryParam("after") String after,
+            @Parameter(description = "Maximum number of Restaurants to return")
+            @QueryParam("limit") Integer limit,
+            @Context UriInfo uriInfo) {
+        int pageSize = KeysetPage.limit(limit);
+        List<Restaurant> restaurants;
+        if (after == null) {
+            restaurants = service.findAllOrderedByName(null, null, pageSize + 1);
+        } else {
+            String[] keys = KeysetPage.decode(after, 2);
+            restaurants = service.findAllOrderedByName(keys[0], KeysetPage.id(keys, 1), pageSize + 1);
+        }
+        return KeysetPage.response(restaurants, pageSize, uriInfo, r -> KeysetPage.encode(r.getName(), r.getId()));
     }
 
     @GET
@@ -49,20 +70,107 @@ public class RestaurantRestService {
     )
     @APIResponses(value = {
             @APIResponse(responseCode = "200", description = "Restaurant found"),
+            @APIResponse(responseCode = "304", description = "The client's copy is current"),
             @APIResponse(responseCode = "404", description = "Restaurant with id not found")
     })
     public Response retrieveRestaurantById(
             @Parameter(description = "Id of Restaurant to be fetched", required = true)
             @Schema(minimum = "0", required = true)
-            @PathParam("id") long id) {
+            @PathParam("id") long id,
+            @Context Request request) {
 
+        // The Restaurant usually comes from the second-level cache, so the version costs no query; an unchanged one is
+        // just not serialized
         Restaurant restaurant = service.findById(id);
         if (restaurant == null) {
             throw new RestServiceException("No Restaurant with the id " + id + " was found!", Response.Status.NOT_FOUND);
         }
-        log.info("findById " + id + ": found Restaurant = " + restaurant);
+        Response notModified = ETags.notModified(request, id, restaurant.getVersion());
+        if (notModified != null) {
+            return notModified;
+        }
+        log.fine("findById {}: found Restaurant = {}", id, restaurant);
+
+        return Response.ok(restaurant).tag(ETags.of(restaurant.getId(), restaurant.getVersion())).build();
+    }
+
+    @GET
+    @Path("/{id:[0-9]+}/reviews")
+    @Operation(
+            summary = "Fetch the Reviews of a Restaurant",
+            description = "Returns a JSON array of the Review objects of the Restaurant with the provided id, a page at a time."
+    )
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Reviews found"),
+            @APIResponse(responseCode = "400", description = "Invalid after or limit supplied"),
+            @APIResponse(responseCode = "404", description = "Restaurant with id not found")
+    })
+    public Response retrieveRestaurantReviews(
+            @Parameter(description = "Id of Restaurant whose Reviews are to be fetched", required = true)
+            @Schema(minimum = "0", required = true)
+            @PathParam("id") long id,
+            @Parameter(description = "Cursor from the Link rel=\"next\" header of the previous page")
+            @QueryParam("after") String after,
+            @Parameter(description = "Maximum number of Reviews to return")
+            @QueryParam("limit") Integer limit,
+            @Context UriInfo uriInfo) {
+
+        if (service.findById(id) == null) {
+            throw new RestServiceException("No Restaurant with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+
+        int pageSize = KeysetPage.limit(limit);
+        Long afterId = after == null ? null : KeysetPage.id(KeysetPage.decode(after, 1), 0);
+        List<Review> reviews = service.findReviewsById(id, afterId, pageSize + 1);
+        return KeysetPage.response(reviews, pageSize, uriInfo, r -> KeysetPage.encode(r.getId()));
+    }
+
+    @GET
+    @Path("/top")
+    @Operation(
+            summary = "Fetch the best rated Restaurants",
+            description = "Returns the Restaurants with the highest average rating, best first, as a JSON array of their id, number of Reviews and average rating. Ties are broken by the number of Reviews."
+    )
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Ranking returned"),
+            @APIResponse(responseCode = "400", description = "Invalid n or minReviews supplied")
+    })
+    public Response retrieveTopRestaurants(
+            @Parameter(description = "Maximum number of Restaurants to return, up to " + MAX_TOP)
+            @QueryParam("n") @DefaultValue("10") int n,
+            @Parameter(description = "Minimum number of Reviews a Restaurant needs to be ranked")
+            @QueryParam("minReviews") @DefaultValue("1") long minReviews) {
+
+        if (n < 1 || n > MAX_TOP) {
+            throw new RestServiceException("n must be between 1 and " + MAX_TOP, Response.Status.BAD_REQUEST);
+        }
+        if (minReviews < 0) {
+            throw new RestServiceException("minReviews must not be negative", Response.Status.BAD_REQUEST);
+        }
+
+        return Response.ok(service.findTopRated(n, minReviews)).build();
+    }
+
+    @GET
+    @Path("/{id:[0-9]+}/rating")
+    @Operation(
+            summary = "Fetch the rating of a Restaurant",
+            description = "Returns the number of Reviews of the Restaurant, the sum and average of their ratings, and how many Reviews gave each rating from 0 to 5."
+    )
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Rating found"),
+            @APIResponse(responseCode = "404", description = "Restaurant with id not found")
+    })
+    public Response retrieveRestaurantRating(
+            @Parameter(description = "Id of Restaurant whose rating is to be fetched", required = true)
+            @Schema(minimum = "0", required = true)
+            @PathParam("id") long id) {
+
+        if (service.findById(id) == null) {
+            throw new RestServiceException("No Restaurant with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
 
-        return Response.ok(restaurant).build();
+        return Response.ok(service.findRatingById(id)).build();
     }
 
     @POST
@@ -110,7 +218,7 @@ public class RestaurantRestService {
             throw new RestServiceException(e);
         }
 
-        log.info("createRestaurant completed. Restaurant = " + restaurant);
+        log.info("createRestaurant completed. Restaurant = {}", restaurant);
         return builder.build();
     }
 
@@ -122,6 +230,8 @@ public class RestaurantRestService {
             @APIResponse(responseCode = "400", description = "Invalid Restaurant supplied in request body"),
             @APIResponse(responseCode = "404", description = "Restaurant with id not found"),
             @APIResponse(responseCode = "409", description = "Restaurant details supplied in request body conflict with another existing Restaurant"),
+            @APIResponse(responseCode = "412", description = "The Restaurant has changed since the version given in If-Match"),
+            @APIResponse(responseCode = "428", description = "No If-Match header was given"),
             @APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request")
     })
     @Transactional
@@ -130,7 +240,9 @@ public class RestaurantRestService {
             @Schema(minimum = "0")
             @PathParam("id") long id,
             @Parameter(description = "JSON representation of Restaurant object to be updated in the database", required = true)
-            Restaurant restaurant) {
+            Restaurant restaurant,
+            @Parameter(description = "ETag of the version of the Restaurant the update is based on, or *", required = true)
+            @HeaderParam("If-Match") String ifMatch) {
 
         if (restaurant == null || restaurant.getId() == null) {
             throw new RestServiceException("Invalid Restaurant supplied in request body", Response.Status.BAD_REQUEST);
@@ -143,15 +255,22 @@ public class RestaurantRestService {
                     responseObj, Response.Status.CONFLICT);
         }
 
-        if (service.findById(restaurant.getId()) == null) {
-            throw new RestServiceException("No Restaurant with the id " + id + " was found!", Response.Status.NOT_FOUND);
-        }
+        restaurant.setVersion(ETags.expectedVersion(id, ifMatch));
 
         Response.ResponseBuilder builder;
 
         try {
-            service.update(restaurant);
-            builder = Response.ok(restaurant);
+            Restaurant updated = service.update(restaurant);
+            builder = Response.ok(updated).tag(ETags.of(updated.getId(), updated.getVersion()));
+
+        } catch (NoResultException e) {
+            throw new RestServiceException("No Restaurant with the id " + id + " was found!", Response.Status.NOT_FOUND, e);
+
+        } catch (OptimisticLockException e) {
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("version", "The Restaurant has been changed by someone else, please fetch it again");
+            throw new RestServiceException("Restaurant details supplied in request body are out of date",
+                    responseObj, Response.Status.PRECONDITION_FAILED, e);
 
         } catch (ConstraintViolationException ce) {
             Map<String, String> responseObj = new HashMap<>();
@@ -170,7 +289,7 @@ public class RestaurantRestService {
             throw new RestServiceException(e);
         }
 
-        log.info("updateRestaurant completed. Restaurant = " + restaurant);
+        log.info("updateRestaurant completed. Restaurant = {}", restaurant);
         return builder.build();
     }
 
@@ -189,21 +308,18 @@ public class RestaurantRestService {
             @Schema(minimum = "0")
             @PathParam("id") long id) {
 
-        Response.ResponseBuilder builder;
-
-        Restaurant restaurant = service.findById(id);
-        if (restaurant == null) {
-            throw new RestServiceException("No Restaurant with the id " + id + " was found!", Response.Status.NOT_FOUND);
-        }
+        boolean deleted;
 
         try {
-            service.delete(restaurant);
-            builder = Response.noContent();
+            deleted = service.delete(id);
 
         } catch (Exception e) {
             throw new RestServiceException(e);
         }
-        log.info("deleteRestaurant completed. Restaurant = " + restaurant);
-        return builder.build();
+        if (!deleted) {
+            throw new RestServiceException("No Restaurant with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+        log.info("deleteRestaurant completed. Restaurant = {}", id);
+        return Response.noContent().build();
     }
 }
@@ -6,22 +6,23 @@ import uk.ac.newcastle.enterprisemiddleware.area.AreaService;
 import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
 import uk.ac.newcastle.enterprisemiddleware.review.Review;
 import uk.ac.newcastle.enterprisemiddleware.review.ReviewRepository;
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.NoResultException;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.core.Response;
 import java.util.List;
-import java.util.logging.Logger;
 
 @Dependent
 public class RestaurantService {
 
     @Inject
     @Named("logger")
-    Logger log;
+    Log log;
 
     @Inject
     RestaurantValidator validator;
@@ -32,26 +33,50 @@ public class RestaurantService {
     @Inject
     ReviewRepository reviewRepository; // Add ReviewRepository Injection
 
-    List<Restaurant> findAllOrderedByName() {
-        return restaurantRepository.findAllOrderedByName();
+    @Inject
+    RestaurantRatingService ratingService;
+
+    List<Restaurant> findAllOrderedByName(String name, Long id, int limit) {
+        return restaurantRepository.findAllOrderedByName(name, id, limit);
     }
 
     public Restaurant findById(Long id) {
         return restaurantRepository.findById(id);
     }
 
+    List<Review> findReviewsById(Long id, Long afterId, int limit) {
+        return reviewRepository.findByRestaurantId(id, afterId, limit);
+    }
+
+    RestaurantRatingStats findRatingById(Long id) {
+        return ratingService.findByRestaurantId(id);
+    }
+
+    List<RestaurantLeaderboard.Entry> findTopRated(int n, long minReviews) {
+        return ratingService.findTopRated(n, minReviews);
+    }
+
     Restaurant create(Restaurant restaurant) throws Exception {
-        log.info("RestaurantService.create() - Creating " + restaurant.getName());
+        log.info("RestaurantService.create() - Creating {}", restaurant.getName());
 
         // Validate the restaurant data
         validator.validateRestaurant(restaurant);
 
-        // Write the restaurant to the database
-        return restaurantRepository.create(restaurant);
+        // Write the restaurant to the database, with its rating totals starting at zero
+        restaurantRepository.create(restaurant);
+        ratingService.create(restaurant.getId());
+
+        return restaurant;
     }
 
     Restaurant update(Restaurant restaurant) throws Exception {
-        log.info("RestaurantService.update() - Updating " + restaurant.getName());
+        log.info("RestaurantService.update() - Updating {}", restaurant.getName());
+
+        // An unconditional update reads the Restaurant anyway, so a missing one is reported before anything wrong with the
+        // new data. A conditional one is not read at all, and fails on its version if the Restaurant is missing.
+        if (restaurant.getVersion() == null && restaurantRepository.findById(restaurant.getId()) == null) {
+            throw new NoResultException("No Restaurant with the id " + restaurant.getId());
+        }
 
         // Validate the restaurant data
         validator.validateRestaurant(restaurant);
@@ -60,24 +85,17 @@ public class RestaurantService {
         return restaurantRepository.update(restaurant);
     }
 
-    Restaurant delete(Restaurant restaurant) throws Exception {
-        log.info("RestaurantService.delete() - Deleting " + restaurant.getName());
-
-        Restaurant deletedRestaurant = null;
-
-        if (restaurant.getId() != null) {
-            // firstly delete all reviews associated with the restaurant
-            List<Review> reviews = reviewRepository.findByRestaurantId(restaurant.getId());
-            for (Review review : reviews) {
-                reviewRepository.delete(review);
-            }
-            // secondly delete the restaurant
-            deletedRestaurant = restaurantRepository.delete(restaurant);
-        } else {
-            log.info("RestaurantService.delete() - No ID was found so can't Delete.");
-        }
+    boolean delete(Long id) throws Exception {
+        log.info("RestaurantService.delete() - Deleting Restaurant {}", id);
 
-        return deletedRestaurant;
+        // firstly delete all reviews associated with the restaurant
+        reviewRepository.deleteByRestaurantId(id);
+        // secondly delete the restaurant, and its rating totals only if there was one
+        boolean deleted = restaurantRepository.deleteById(id);
+        if (deleted) {
+            ratingService.delete(id);
+        }
+        return deleted;
     }
 }
 
@@ -2,7 +2,6 @@ package uk.ac.newcastle.enterprisemiddleware.restaurant;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import javax.persistence.NoResultException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
@@ -34,24 +33,6 @@ public class RestaurantValidator {
     }
 
     boolean phoneNumberAlreadyExists(String phoneNumber, Long id) {
-        Restaurant restaurant = null;
-        Restaurant restaurantWithID = null;
-        try {
-            restaurant = restaurantRepository.findByPhoneNumber(phoneNumber);
-        } catch (NoResultException e) {
-            // ignore
-        }
-
-        if (restaurant != null && id != null) {
-            try {
-                restaurantWithID = restaurantRepository.findById(id);
-                if (restaurantWithID != null && restaurantWithID.getPhoneNumber().equals(phoneNumber)) {
-                    restaurant = null;
-                }
-            } catch (NoResultException e) {
-                // ignore
-            }
-        }
-        return restaurant != null;
+        return restaurantRepository.phoneNumberExists(phoneNumber, id);
     }
 }
@@ -1,5 +1,9 @@
 package uk.ac.newcastle.enterprisemiddleware.review;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 import uk.ac.newcastle.enterprisemiddleware.restaurant.Restaurant;
 import uk.ac.newcastle.enterprisemiddleware.user.User;
 
@@ -12,23 +16,70 @@ import java.util.Objects;
 
 @Entity
 @NamedQueries({
-        @NamedQuery(name = Review.FIND_ALL, query = "SELECT r FROM Review r ORDER BY r.id ASC"),
-        @NamedQuery(name = Review.FIND_BY_USER, query = "SELECT r FROM Review r WHERE r.user.id = :userId"),
-        @NamedQuery(name = Review.FIND_BY_RESTAURANT, query = "SELECT r FROM Review r WHERE r.restaurant.id = :restaurantId")
+        @NamedQuery(name = Review.FIND_VERSIONS, query = "SELECT r.version, u.version, s.version FROM Review r "
+                + "JOIN r.user u JOIN r.restaurant s WHERE r.id = :id"),
+        @NamedQuery(name = Review.FIND_ALL, query = "SELECT r FROM Review r JOIN FETCH r.user JOIN FETCH r.restaurant "
+                + "ORDER BY r.id ASC"),
+        @NamedQuery(name = Review.FIND_ALL_AFTER, query = "SELECT r FROM Review r JOIN FETCH r.user JOIN FETCH r.restaurant "
+                + "WHERE r.id > :id ORDER BY r.id ASC"),
+        @NamedQuery(name = Review.SUMMARIZE_ALL, query = "SELECT NEW " + Review.SUMMARY + "(r.id, r.rating, r.review, u.id, u.name, s.id, s.name) "
+                + "FROM Review r JOIN r.user u JOIN r.restaurant s ORDER BY r.id ASC"),
+        @NamedQuery(name = Review.SUMMARIZE_ALL_AFTER, query = "SELECT NEW " + Review.SUMMARY + "(r.id, r.rating, r.review, u.id, u.name, s.id, s.name) "
+                + "FROM Review r JOIN r.user u JOIN r.restaurant s WHERE r.id > :id ORDER BY r.id ASC"),
+        @NamedQuery(name = Review.EXPORT_ALL, query = "SELECT r FROM Review r JOIN FETCH r.user JOIN FETCH r.restaurant ORDER BY r.id ASC"),
+        @NamedQuery(name = Review.FIND_BY_USER, query = "SELECT r FROM Review r JOIN FETCH r.user JOIN FETCH r.restaurant "
+                + "WHERE r.user.id = :userId"),
+        @NamedQuery(name = Review.SUMMARIZE_BY_USER, query = "SELECT NEW " + Review.SUMMARY + "(r.id, r.rating, r.review, u.id, u.name, s.id, s.name) "
+                + "FROM Review r JOIN r.user u JOIN r.restaurant s WHERE u.id = :userId"),
+        @NamedQuery(name = Review.FIND_PAGE_BY_RESTAURANT, query = "SELECT r FROM Review r JOIN FETCH r.user "
+                + "JOIN FETCH r.restaurant WHERE r.restaurant.id = :restaurantId ORDER BY r.id ASC"),
+        @NamedQuery(name = Review.FIND_PAGE_BY_RESTAURANT_AFTER, query = "SELECT r FROM Review r JOIN FETCH r.user "
+                + "JOIN FETCH r.restaurant WHERE r.restaurant.id = :restaurantId AND r.id > :id ORDER BY r.id ASC"),
+        @NamedQuery(name = Review.COUNT_BY_USER, query = "SELECT r.restaurant.id, r.rating, COUNT(r) FROM Review r "
+                + "WHERE r.user.id = :userId GROUP BY r.restaurant.id, r.rating"),
+        @NamedQuery(name = Review.DELETE_BY_USER, query = "DELETE FROM Review r WHERE r.user.id = :userId"),
+        @NamedQuery(name = Review.DELETE_BY_RESTAURANT, query = "DELETE FROM Review r WHERE r.restaurant.id = :restaurantId"),
+        @NamedQuery(name = Review.FIND_ID_BY_USER_AND_RESTAURANT, query = "SELECT r.id FROM Review r WHERE r.user.id = :userId AND r.restaurant.id = :restaurantId")
 })
 @XmlRootElement
-@Table(name = "reviews")
+@Table(name = "reviews", indexes = @Index(name = "idx_reviews_restaurant", columnList = "restaurant_id, id"),
+        uniqueConstraints = @UniqueConstraint(name = Review.UNIQUE_USER_RESTAURANT,
+        columnNames = {"user_id", "restaurant_id"}))
 public class Review implements Serializable {
     private static final long serialVersionUID = 1L;
 
     public static final String FIND_ALL = "Review.findAll";
+    public static final String FIND_VERSIONS = "Review.findVersions";
+    public static final String FIND_ALL_AFTER = "Review.findAllAfter";
+    public static final String SUMMARIZE_ALL = "Review.summarizeAll";
+    public static final String SUMMARIZE_ALL_AFTER = "Review.summarizeAllAfter";
+    public static final String SUMMARIZE_BY_USER = "Review.summarizeByUser";
+    public static final String EXPORT_ALL = "Review.exportAll";
     public static final String FIND_BY_USER = "Review.findByUser";
-    public static final String FIND_BY_RESTAURANT = "Review.findByRestaurant";
+    public static final String FIND_PAGE_BY_RESTAURANT = "Review.findPageByRestaurant";
+    public static final String FIND_PAGE_BY_RESTAURANT_AFTER = "Review.findPageByRestaurantAfter";
+    public static final String COUNT_BY_USER = "Review.countByUser";
+    public static final String DELETE_BY_USER = "Review.deleteByUser";
+    public static final String DELETE_BY_RESTAURANT = "Review.deleteByRestaurant";
+    public static final String FIND_ID_BY_USER_AND_RESTAURANT = "Review.findIdByUserAndRestaurant";
+
+    static final String SUMMARY = "uk.ac.newcastle.enterprisemiddleware.review.ReviewSummary";
+
+    public static final String UNIQUE_USER_RESTAURANT = "uk_reviews_user_restaurant";
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "reviews_seq")
+    @GenericGenerator(name = "reviews_seq", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+            @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "reviews_seq"),
+            @Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = "50"),
+            @Parameter(name = SequenceStyleGenerator.OPT_PARAM, value = "pooled-lo")
+    })
     private Long id;
 
+    @Version
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
+
     @ManyToOne
     @JoinColumn(name = "user_id", nullable = false)
     private User user;
@@ -54,6 +105,14 @@ public class Review implements Serializable {
         this.id = id;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public User getUser() {
         return user;
     }
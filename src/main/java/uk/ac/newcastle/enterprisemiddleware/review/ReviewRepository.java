@@ -1,30 +1,62 @@
 package uk.ac.newcastle.enterprisemiddleware.review;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hibernate.SessionFactory;
+import uk.ac.newcastle.enterprisemiddleware.restaurant.Restaurant;
+import uk.ac.newcastle.enterprisemiddleware.user.User;
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
+import uk.ac.newcastle.enterprisemiddleware.util.NdjsonExport;
+
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.NoResultException;
+import javax.persistence.PersistenceException;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolationException;
+import javax.ws.rs.core.StreamingOutput;
 import java.util.List;
-import java.util.logging.Logger;
 
 @RequestScoped
 public class ReviewRepository {
 
     @Inject
     @Named("logger")
-    Logger log;
+    Log log;
 
     @Inject
     EntityManager em;
 
-    List<Review> findAll() {
-        TypedQuery<Review> query = em.createNamedQuery(Review.FIND_ALL, Review.class);
-        return query.getResultList();
+    @Inject
+    SessionFactory sessionFactory;
+
+    List<Review> findAll(Long afterId, int limit) {
+        TypedQuery<Review> query;
+        if (afterId == null) {
+            query = em.createNamedQuery(Review.FIND_ALL, Review.class);
+        } else {
+            query = em.createNamedQuery(Review.FIND_ALL_AFTER, Review.class).setParameter("id", afterId);
+        }
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    List<ReviewSummary> summarizeAll(Long afterId, int limit) {
+        TypedQuery<ReviewSummary> query;
+        if (afterId == null) {
+            query = em.createNamedQuery(Review.SUMMARIZE_ALL, ReviewSummary.class);
+        } else {
+            query = em.createNamedQuery(Review.SUMMARIZE_ALL_AFTER, ReviewSummary.class).setParameter("id", afterId);
+        }
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    StreamingOutput exportAll(ObjectMapper mapper) {
+        // The user and restaurant are fetched with each review, see Review.EXPORT_ALL
+        return new NdjsonExport(sessionFactory, Review.EXPORT_ALL, mapper);
     }
 
     public List<Review> findByUserId(Long userId) {
@@ -32,38 +64,148 @@ public class ReviewRepository {
         return query.getResultList();
     }
 
-    public List<Review> findByRestaurantId(Long restaurantId) {
-        TypedQuery<Review> query = em.createNamedQuery(Review.FIND_BY_RESTAURANT, Review.class).setParameter("restaurantId", restaurantId);
-        return query.getResultList();
+    List<ReviewSummary> summarizeByUserId(Long userId) {
+        return em.createNamedQuery(Review.SUMMARIZE_BY_USER, ReviewSummary.class).setParameter("userId", userId).getResultList();
+    }
+
+    /**
+     * Returns a page of the reviews of a restaurant in id order, with the user and restaurant of each review fetched in
+     * the same query. The (restaurant_id, id) index serves both the filter and the order.
+     */
+    public List<Review> findByRestaurantId(Long restaurantId, Long afterId, int limit) {
+        TypedQuery<Review> query;
+        if (afterId == null) {
+            query = em.createNamedQuery(Review.FIND_PAGE_BY_RESTAURANT, Review.class);
+        } else {
+            query = em.createNamedQuery(Review.FIND_PAGE_BY_RESTAURANT_AFTER, Review.class).setParameter("id", afterId);
+        }
+        return query.setParameter("restaurantId", restaurantId).setMaxResults(limit).getResultList();
+    }
+
+    Long findIdByUserAndRestaurant(Long userId, Long restaurantId) {
+        List<Long> ids = em.createNamedQuery(Review.FIND_ID_BY_USER_AND_RESTAURANT, Long.class)
+                .setParameter("userId", userId)
+                .setParameter("restaurantId", restaurantId)
+                .setMaxResults(1)
+                .getResultList();
+        return ids.isEmpty() ? null : ids.get(0);
     }
 
     Review findById(Long id) {
         return em.find(Review.class, id);
     }
 
+    /**
+     * @return The versions of the Review and of its User and Restaurant, in that order; or null if there is no such Review
+     */
+    Long[] findVersionsById(Long id) {
+        List<Object[]> versions = em.createNamedQuery(Review.FIND_VERSIONS, Object[].class).setParameter("id", id).getResultList();
+        if (versions.isEmpty()) {
+            return null;
+        }
+        Object[] row = versions.get(0);
+        return new Long[] {(Long) row[0], (Long) row[1], (Long) row[2]};
+    }
+
     Review create(Review review) throws Exception {
-        log.info("ReviewRepository.create() - Creating review for restaurant " + review.getRestaurant().getName() + " by user " + review.getUser().getName());
+        log.info("ReviewRepository.create() - Creating review for restaurant {} by user {}", review.getRestaurant().getId(), review.getUser().getId());
 
+        attach(review);
         em.persist(review);
+        flush();
 
         return review;
     }
 
+    /**
+     * <p>The User and Restaurant of a Review received by the REST service carry no version, so Hibernate would take
+     * them for new entities. They are swapped for the managed (usually second-level cached) instances.</p>
+     */
+    private void attach(Review review) {
+        if (review.getUser() != null && review.getUser().getId() != null) {
+            User user = em.find(User.class, review.getUser().getId());
+            if (user != null) {
+                review.setUser(user);
+            }
+        }
+        if (review.getRestaurant() != null && review.getRestaurant().getId() != null) {
+            Restaurant restaurant = em.find(Restaurant.class, review.getRestaurant().getId());
+            if (restaurant != null) {
+                review.setRestaurant(restaurant);
+            }
+        }
+    }
+
     Review update(Review review) throws Exception {
-        log.info("ReviewRepository.update() - Updating review for restaurant " + review.getRestaurant().getName() + " by user " + review.getUser().getName());
+        log.info("ReviewRepository.update() - Updating review for restaurant {} by user {}", review.getRestaurant().getId(), review.getUser().getId());
 
-        em.merge(review);
+        Review current = em.find(Review.class, review.getId());
+        if (current == null) {
+            throw new NoResultException("No Review with the id " + review.getId());
+        }
+        // Unless the caller expects a particular version, the update applies on top of the current one
+        if (review.getVersion() == null) {
+            review.setVersion(current.getVersion());
+        }
 
-        return review;
+        attach(review);
+        Review updated = em.merge(review);
+        flush();
+
+        return updated;
     }
 
-    public Review delete(Review review) throws Exception {
-        log.info("ReviewRepository.delete() - Deleting review for restaurant " + review.getRestaurant().getName() + " by user " + review.getUser().getName());
+    /**
+     * Writes the pending change now, so that a duplicate Review for the same user and restaurant, written by a
+     * concurrent request after ReviewValidator checked it, is reported as a UniqueReviewException.
+     */
+    private void flush() {
+        try {
+            em.flush();
+        } catch (PersistenceException e) {
+            if (e.getCause() instanceof org.hibernate.exception.ConstraintViolationException) {
+                String constraint = ((org.hibernate.exception.ConstraintViolationException) e.getCause()).getConstraintName();
+                if (constraint != null && constraint.toLowerCase().contains(Review.UNIQUE_USER_RESTAURANT)) {
+                    throw new UniqueReviewException("Unique Review Violation：A review for this user and restaurant already exists", e);
+                }
+            }
+            throw e;
+        }
+    }
 
-        if (review.getId() != null) {
-            em.remove(em.merge(review));
-        } else {
-            log.info("ReviewRepository.delete() - No ID was found so can't Delete.");
+    /**
+     * Counts the reviews of a user for each restaurant and rating.
+     *
+     * @return Rows of restaurant id, rating and number of reviews
+     */
+    public List<Object[]> countByUserId(Long userId) {
+        return em.createNamedQuery(Review.COUNT_BY_USER, Object[].class).setParameter("userId", userId).getResultList();
+    }
+
+    public int deleteByUserId(Long userId) {
+        int deleted = em.createNamedQuery(Review.DELETE_BY_USER).setParameter("userId", userId).executeUpdate();
+        log.info("ReviewRepository.deleteByUserId() - Deleted {} reviews by user {}", deleted, userId);
+        return deleted;
+    }
+
+    public int deleteByRestaurantId(Long restaurantId) {
+        int deleted = em.createNamedQuery(Review.DELETE_BY_RESTAURANT).setParameter("restaurantId", restaurantId).executeUpdate();
+        log.info("ReviewRepository.deleteByRestaurantId() - Deleted {} reviews for restaurant {}", deleted, restaurantId);
+        return deleted;
+    }
+
+    /**
+     * <p>Unlike the other entities a Review is loaded before it is removed: its restaurant and rating are needed to
+     * take it out of the rating totals, and loading it costs no more than reading them.</p>
+     *
+     * @return The Review deleted, or null if there is none with the id
+     */
+    public Review deleteById(Long id) throws Exception {
+        log.info("ReviewRepository.deleteById() - Deleting review {}", id);
+
+        Review review = em.find(Review.class, id);
+        if (review != null) {
+            em.remove(review);
         }
 
         return review;
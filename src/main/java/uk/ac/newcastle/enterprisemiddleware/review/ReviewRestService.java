@@ -1,5 +1,6 @@
 package uk.ac.newcastle.enterprisemiddleware.review;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
@@ -7,39 +8,75 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.jboss.resteasy.reactive.Cache;
 import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
+import uk.ac.newcastle.enterprisemiddleware.util.ETags;
+import uk.ac.newcastle.enterprisemiddleware.util.KeysetPage;
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
+import uk.ac.newcastle.enterprisemiddleware.util.NdjsonExport;
 import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.NoResultException;
+import javax.persistence.OptimisticLockException;
 import javax.transaction.Transactional;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Logger;
 
 
 @Path("/reviews")
 @Consumes(MediaType.APPLICATION_JSON)
 @Produces(MediaType.APPLICATION_JSON)
 public class ReviewRestService {
+    private static final String VIEW_FULL = "full";
+    private static final String VIEW_COMPACT = "compact";
+
     @Inject
     @Named("logger")
-    Logger log;
+    Log log;
 
     @Inject
     ReviewService service;
 
+    @Inject
+    ObjectMapper mapper;
+
     @GET
-    @Operation(summary = "Fetch all Reviews", description = "Returns a JSON array of all stored Review objects.")
-    public Response retrieveAllReviews() {
-        List<Review> reviews = service.findAll();
-        return Response.ok(reviews).build();
+    @Operation(summary = "Fetch all Reviews", description = "Returns a JSON array of stored Review objects, a page at a time.")
+    public Response retrieveAllReviews(
+            @Parameter(description = "Cursor from the Link rel=\"next\" header of the previous page")
+            @QueryParam("after") String after,
+            @Parameter(description = "Maximum number of Reviews to return")
+            @QueryParam("limit") Integer limit,
+            @Parameter(description = "'full' for the whole User and Restaurant of each Review, 'compact' for only their ids and names")
+            @QueryParam("view") @DefaultValue(VIEW_FULL) String view,
+            @Context UriInfo uriInfo) {
+        int pageSize = KeysetPage.limit(limit);
+        Long afterId = after == null ? null : KeysetPage.id(KeysetPage.decode(after, 1), 0);
+        if (isCompact(view)) {
+            List<ReviewSummary> reviews = service.summarizeAll(afterId, pageSize + 1);
+            return KeysetPage.response(reviews, pageSize, uriInfo, r -> KeysetPage.encode(r.getId()));
+        }
+        List<Review> reviews = service.findAll(afterId, pageSize + 1);
+        return KeysetPage.response(reviews, pageSize, uriInfo, r -> KeysetPage.encode(r.getId()));
+    }
+
+    @GET
+    @Path("/export")
+    @Produces(NdjsonExport.MEDIA_TYPE)
+    @Operation(summary = "Export all Reviews", description = "Streams every stored Review object as newline delimited JSON.")
+    public StreamingOutput exportReviews() {
+        return service.exportAll(mapper);
     }
 
     @GET
@@ -50,20 +87,31 @@ public class ReviewRestService {
     )
     @APIResponses(value = {
             @APIResponse(responseCode = "200", description = "Review found"),
+            @APIResponse(responseCode = "304", description = "The client's copy is current"),
             @APIResponse(responseCode = "404", description = "Review with id not found")
     })
     public Response retrieveReviewById(
             @Parameter(description = "Id of Review to be fetched", required = true)
             @Schema(minimum = "0", required = true)
-            @PathParam("id") long id) {
+            @PathParam("id") long id,
+            @Context Request request) {
+
+        Long[] versions = service.findVersionsById(id);
+        if (versions == null) {
+            throw new RestServiceException("No Review with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+        Response notModified = ETags.notModified(request, id, versions[0], versions[1], versions[2]);
+        if (notModified != null) {
+            return notModified;
+        }
 
         Review review = service.findById(id);
         if (review == null) {
             throw new RestServiceException("No Review with the id " + id + " was found!", Response.Status.NOT_FOUND);
         }
-        log.info("findById " + id + ": found Review = " + review);
+        log.fine("findById {}: found Review = {}", id, review);
 
-        return Response.ok(review).build();
+        return Response.ok(review).tag(tag(review)).build();
     }
 
     @GET
@@ -78,9 +126,11 @@ public class ReviewRestService {
     })
     public Response retrieveReviewsByUserId(
             @Parameter(description = "User ID for which reviews are to be fetched", required = true)
-            @PathParam("userId") long userId) {
+            @PathParam("userId") long userId,
+            @Parameter(description = "'full' for the whole User and Restaurant of each Review, 'compact' for only their ids and names")
+            @QueryParam("view") @DefaultValue(VIEW_FULL) String view) {
 
-        List<Review> reviews = service.findByUserId(userId);
+        List<?> reviews = isCompact(view) ? service.summarizeByUserId(userId) : service.findByUserId(userId);
         if (reviews.isEmpty()) {
             throw new RestServiceException("No reviews found for the user ID " + userId, Response.Status.NOT_FOUND);
         }
@@ -132,7 +182,7 @@ public class ReviewRestService {
             throw new RestServiceException(e);
         }
 
-        log.info("createReview completed. Review = " + review);
+        log.info("createReview completed. Review = {}", review);
         return builder.build();
     }
 
@@ -144,6 +194,8 @@ public class ReviewRestService {
             @APIResponse(responseCode = "400", description = "Invalid Review supplied in request body"),
             @APIResponse(responseCode = "404", description = "Review with id not found"),
             @APIResponse(responseCode = "409", description = "Review details supplied in request body conflict with another existing Review"),
+            @APIResponse(responseCode = "412", description = "The Review has changed since the version given in If-Match"),
+            @APIResponse(responseCode = "428", description = "No If-Match header was given"),
             @APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request")
     })
     @Transactional
@@ -152,7 +204,9 @@ public class ReviewRestService {
             @Schema(minimum = "0")
             @PathParam("id") long id,
             @Parameter(description = "JSON representation of Review object to be updated in the database", required = true)
-            Review review) {
+            Review review,
+            @Parameter(description = "ETag of the version of the Review the update is based on, or *", required = true)
+            @HeaderParam("If-Match") String ifMatch) {
 
         if (review == null || review.getId() == null) {
             throw new RestServiceException("Invalid Review supplied in request body", Response.Status.BAD_REQUEST);
@@ -165,15 +219,22 @@ public class ReviewRestService {
                     responseObj, Response.Status.CONFLICT);
         }
 
-        if (service.findById(review.getId()) == null) {
-            throw new RestServiceException("No Review with the id " + id + " was found!", Response.Status.NOT_FOUND);
-        }
+        review.setVersion(ETags.expectedVersion(id, ifMatch));
 
         Response.ResponseBuilder builder;
 
         try {
-            service.update(review);
-            builder = Response.ok(review);
+            Review updated = service.update(review);
+            builder = Response.ok(updated).tag(tag(updated));
+
+        } catch (NoResultException e) {
+            throw new RestServiceException("No Review with the id " + id + " was found!", Response.Status.NOT_FOUND, e);
+
+        } catch (OptimisticLockException e) {
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("version", "The Review has been changed by someone else, please fetch it again");
+            throw new RestServiceException("Review details supplied in request body are out of date",
+                    responseObj, Response.Status.PRECONDITION_FAILED, e);
 
         } catch (ConstraintViolationException ce) {
             Map<String, String> responseObj = new HashMap<>();
@@ -192,7 +253,7 @@ public class ReviewRestService {
             throw new RestServiceException(e);
         }
 
-        log.info("updateReview completed. Review = " + review);
+        log.info("updateReview completed. Review = {}", review);
         return builder.build();
     }
 
@@ -211,21 +272,35 @@ public class ReviewRestService {
             @Schema(minimum = "0")
             @PathParam("id") long id) {
 
-        Response.ResponseBuilder builder;
+        Review review;
 
-        Review review = service.findById(id);
+        try {
+            review = service.delete(id);
+
+        } catch (Exception e) {
+            throw new RestServiceException(e);
+        }
         if (review == null) {
             throw new RestServiceException("No Review with the id " + id + " was found!", Response.Status.NOT_FOUND);
         }
+        log.info("deleteReview completed. Review = {}", review);
+        return Response.noContent().build();
+    }
 
-        try {
-            service.delete(review);
-            builder = Response.noContent();
+    /**
+     * <p>A Review is sent with its whole User and Restaurant, so its tag covers their versions as well.</p>
+     */
+    private static EntityTag tag(Review review) {
+        return ETags.of(review.getId(), review.getVersion(), review.getUser().getVersion(), review.getRestaurant().getVersion());
+    }
 
-        } catch (Exception e) {
-            throw new RestServiceException(e);
+    private static boolean isCompact(String view) {
+        if (VIEW_COMPACT.equals(view)) {
+            return true;
         }
-        log.info("deleteReview completed. Review = " + review);
-        return builder.build();
+        if (VIEW_FULL.equals(view)) {
+            return false;
+        }
+        throw new RestServiceException("The view must be '" + VIEW_FULL + "' or '" + VIEW_COMPACT + "'", Response.Status.BAD_REQUEST);
     }
 }
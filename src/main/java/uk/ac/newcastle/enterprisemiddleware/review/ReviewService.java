@@ -1,25 +1,29 @@
 package uk.ac.newcastle.enterprisemiddleware.review;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.eclipse.microprofile.rest.client.inject.RestClient;
 import uk.ac.newcastle.enterprisemiddleware.area.Area;
 import uk.ac.newcastle.enterprisemiddleware.area.AreaService;
 import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
+import uk.ac.newcastle.enterprisemiddleware.restaurant.RestaurantRatingService;
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.NoResultException;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.util.List;
-import java.util.logging.Logger;
 
 @Dependent
 public class ReviewService {
 
     @Inject
     @Named("logger")
-    Logger log;
+    Log log;
 
     @Inject
     ReviewValidator validator;
@@ -27,51 +31,81 @@ public class ReviewService {
     @Inject
     ReviewRepository reviewRepository;
 
-    List<Review> findAll() {
-        return reviewRepository.findAll();
+    @Inject
+    RestaurantRatingService ratingService;
+
+    List<Review> findAll(Long afterId, int limit) {
+        return reviewRepository.findAll(afterId, limit);
+    }
+
+    List<ReviewSummary> summarizeAll(Long afterId, int limit) {
+        return reviewRepository.summarizeAll(afterId, limit);
+    }
+
+    StreamingOutput exportAll(ObjectMapper mapper) {
+        return reviewRepository.exportAll(mapper);
     }
 
     List<Review> findByUserId(Long userId) {
         return reviewRepository.findByUserId(userId);
     }
 
-    List<Review> findByRestaurantId(Long restaurantId) {
-        return reviewRepository.findByRestaurantId(restaurantId);
+    List<ReviewSummary> summarizeByUserId(Long userId) {
+        return reviewRepository.summarizeByUserId(userId);
     }
 
     Review findById(Long id) {
         return reviewRepository.findById(id);
     }
 
+    Long[] findVersionsById(Long id) {
+        return reviewRepository.findVersionsById(id);
+    }
+
     Review create(Review review) throws Exception {
-        log.info("ReviewService.create() - Creating review for restaurant " + review.getRestaurant().getName() + " by user " + review.getUser().getName());
+        log.info("ReviewService.create() - Creating review for restaurant {} by user {}", review.getRestaurant().getId(), review.getUser().getId());
 
         // Validate the review data
         validator.validateReview(review);
 
         // Write the review to the database
-        return reviewRepository.create(review);
+        reviewRepository.create(review);
+        ratingService.reviewAdded(review.getRestaurant().getId(), review.getRating());
+
+        return review;
     }
 
     Review update(Review review) throws Exception {
-        log.info("ReviewService.update() - Updating review for restaurant " + review.getRestaurant().getName() + " by user " + review.getUser().getName());
+        log.info("ReviewService.update() - Updating review for restaurant {} by user {}", review.getRestaurant().getId(), review.getUser().getId());
+
+        // Note what the rating totals currently count for this review, before it is overwritten
+        Review previous = reviewRepository.findById(review.getId());
+        if (previous == null) {
+            throw new NoResultException("No Review with the id " + review.getId());
+        }
+        Long previousRestaurantId = previous.getRestaurant().getId();
+        int previousRating = previous.getRating();
 
         // Validate the review data
         validator.validateReview(review);
 
         // Update the review in the database
-        return reviewRepository.update(review);
-    }
+        Review updated = reviewRepository.update(review);
 
-    Review delete(Review review) throws Exception {
-        log.info("ReviewService.delete() - Deleting review for restaurant " + review.getRestaurant().getName() + " by user " + review.getUser().getName());
+        if (!previousRestaurantId.equals(updated.getRestaurant().getId()) || previousRating != updated.getRating()) {
+            ratingService.reviewRemoved(previousRestaurantId, previousRating);
+            ratingService.reviewAdded(updated.getRestaurant().getId(), updated.getRating());
+        }
+
+        return updated;
+    }
 
-        Review deletedReview = null;
+    Review delete(Long id) throws Exception {
+        log.info("ReviewService.delete() - Deleting review {}", id);
 
-        if (review.getId() != null) {
-            deletedReview = reviewRepository.delete(review);
-        } else {
-            log.info("ReviewService.delete() - No ID was found so can't Delete.");
+        Review deletedReview = reviewRepository.deleteById(id);
+        if (deletedReview != null) {
+            ratingService.reviewRemoved(deletedReview.getRestaurant().getId(), deletedReview.getRating());
         }
 
         return deletedReview;
@@ -0,0 +1,57 @@
+package uk.ac.newcastle.enterprisemiddleware.review;
+
+/**
+ * <p>Compact view of a Review, returned by the Review lists when <code>view=compact</code> is requested.</p>
+ *
+ * <p>It only carries the id and name of the User and Restaurant, and is built directly by the query (see
+ * {@link Review#SUMMARIZE_ALL}), so no entity is loaded or managed to produce it.</p>
+ */
+public class ReviewSummary {
+
+    private final Long id;
+    private final int rating;
+    private final String review;
+    private final Long userId;
+    private final String userName;
+    private final Long restaurantId;
+    private final String restaurantName;
+
+    public ReviewSummary(Long id, int rating, String review, Long userId, String userName, Long restaurantId,
+                         String restaurantName) {
+        this.id = id;
+        this.rating = rating;
+        this.review = review;
+        this.userId = userId;
+        this.userName = userName;
+        this.restaurantId = restaurantId;
+        this.restaurantName = restaurantName;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public int getRating() {
+        return rating;
+    }
+
+    public String getReview() {
+        return review;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public Long getRestaurantId() {
+        return restaurantId;
+    }
+
+    public String getRestaurantName() {
+        return restaurantName;
+    }
+}
@@ -2,13 +2,11 @@ package uk.ac.newcastle.enterprisemiddleware.review;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import javax.persistence.NoResultException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 import javax.validation.Validator;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 @ApplicationScoped
@@ -29,22 +27,24 @@ public class ReviewValidator {
         }
 
         // Check the uniqueness of the review by user and restaurant
-        if (reviewAlreadyExists(review.getUser().getId(), review.getRestaurant().getId())) {
+        if (reviewAlreadyExists(review.getUser().getId(), review.getRestaurant().getId(), review.getId())) {
             throw new UniqueReviewException("Unique Review Violation：A review for this user and restaurant already exists");
         }
     }
 
-    boolean reviewAlreadyExists(Long userId, Long restaurantId) {
-        try {
-            List<Review> reviews = reviewRepository.findByUserId(userId);
-            for (Review review : reviews) {
-                if (review.getRestaurant().getId().equals(restaurantId)) {
-                    return true;
-                }
-            }
-        } catch (NoResultException e) {
-            // ignore
-        }
-        return false;
+    /**
+     * <p>Checks if another Review already exists for the given User and Restaurant.</p>
+     *
+     * <p>This is a single lookup on the unique (user_id, restaurant_id) index. A Review written concurrently between
+     * this check and the insert is still caught by the constraint itself, see {@link ReviewRepository#create(Review)}.</p>
+     *
+     * @param userId The User id
+     * @param restaurantId The Restaurant id
+     * @param id The id of the Review being validated, null if it is a new one
+     * @return true if a Review other than the one being validated exists for the pair
+     */
+    boolean reviewAlreadyExists(Long userId, Long restaurantId, Long id) {
+        Long existingId = reviewRepository.findIdByUserAndRestaurant(userId, restaurantId);
+        return existingId != null && !existingId.equals(id);
     }
 }
@@ -1,6 +1,11 @@
 package uk.ac.newcastle.enterprisemiddleware.user;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.annotations.QueryHints;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 import uk.ac.newcastle.enterprisemiddleware.review.Review;
 
 import javax.persistence.*;
@@ -12,22 +17,41 @@ import java.util.List;
 import java.util.Objects;
 
 @Entity
+@Cacheable
 @NamedQueries({
-        @NamedQuery(name = User.FIND_ALL, query = "SELECT u FROM User u ORDER BY u.name ASC"),
-        @NamedQuery(name = User.FIND_BY_EMAIL, query = "SELECT u FROM User u WHERE u.email = :email")
+        @NamedQuery(name = User.FIND_ALL, query = "SELECT u FROM User u ORDER BY u.name ASC, u.id ASC"),
+        @NamedQuery(name = User.FIND_ALL_AFTER, query = "SELECT u FROM User u WHERE u.name > :name OR (u.name = :name AND u.id > :id) "
+                + "ORDER BY u.name ASC, u.id ASC"),
+        @NamedQuery(name = User.FIND_BY_EMAIL, query = "SELECT u FROM User u WHERE u.email = :email",
+                hints = @QueryHint(name = QueryHints.CACHEABLE, value = "true")),
+        @NamedQuery(name = User.EMAIL_EXISTS, query = "SELECT 1 FROM User u WHERE u.email = :email AND (:id IS NULL OR u.id <> :id)"),
+        @NamedQuery(name = User.DELETE_BY_ID, query = "DELETE FROM User u WHERE u.id = :id")
 })
 @XmlRootElement
-@Table(name = "users", uniqueConstraints = @UniqueConstraint(columnNames = "email"))
+@Table(name = "users", indexes = @Index(name = "idx_users_name", columnList = "name, id"),
+        uniqueConstraints = @UniqueConstraint(columnNames = "email"))
 public class User implements Serializable {
     private static final long serialVersionUID = 1L;
 
     public static final String FIND_ALL = "User.findAll";
+    public static final String FIND_ALL_AFTER = "User.findAllAfter";
     public static final String FIND_BY_EMAIL = "User.findByEmail";
+    public static final String EMAIL_EXISTS = "User.emailExists";
+    public static final String DELETE_BY_ID = "User.deleteById";
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "users_seq")
+    @GenericGenerator(name = "users_seq", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+            @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "users_seq"),
+            @Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = "50"),
+            @Parameter(name = SequenceStyleGenerator.OPT_PARAM, value = "pooled-lo")
+    })
     private Long id;
 
+    @Version
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
+
     @NotNull
     @Size(min = 1, max = 50)
     @Pattern(regexp = "[A-Za-z-']+", message = "Please use a name without numbers or specials")
@@ -51,6 +75,14 @@ public class User implements Serializable {
         this.id = id;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public String getName() {
         return name;
     }
@@ -75,8 +107,8 @@ public class User implements Serializable {
         this.phoneNumber = phoneNumber;
     }
 
-    // Cascade Deletion
-    @OneToMany(mappedBy = "user", cascade = CascadeType.ALL, orphanRemoval = true)
+    // Not cascaded: the Reviews are removed with a single bulk DELETE, see ReviewRepository
+    @OneToMany(mappedBy = "user")
     @JsonIgnore
     private List<Review> reviews;
     public List<Review> getReviews() {
@@ -1,30 +1,40 @@
 package uk.ac.newcastle.enterprisemiddleware.user;
 
+import org.hibernate.Session;
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
+
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.NoResultException;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolationException;
 import java.util.List;
-import java.util.logging.Logger;
 
 @RequestScoped
 public class UserRepository {
 
     @Inject
     @Named("logger")
-    Logger log;
+    Log log;
 
     @Inject
     EntityManager em;
 
-    List<User> findAllOrderedByName() {
-        TypedQuery<User> query = em.createNamedQuery(User.FIND_ALL, User.class);
-        return query.getResultList();
+    List<User> findAllOrderedByName(String name, Long id, int limit) {
+        TypedQuery<User> query;
+        if (id == null) {
+            query = em.createNamedQuery(User.FIND_ALL, User.class);
+        } else {
+            query = em.createNamedQuery(User.FIND_ALL_AFTER, User.class)
+                    .setParameter("name", name)
+                    .setParameter("id", id);
+        }
+        return query.setMaxResults(limit).getResultList();
     }
 
     User findById(Long id) {
@@ -36,6 +46,15 @@ public class UserRepository {
         return query.getSingleResult();
     }
 
+    boolean emailExists(String email, Long excludeId) {
+        return !em.createNamedQuery(User.EMAIL_EXISTS)
+                .setParameter("email", email)
+                .setParameter("id", excludeId)
+                .setMaxResults(1)
+                .getResultList()
+                .isEmpty();
+    }
+
     List<User> findAllByName(String name) {
         CriteriaBuilder cb = em.getCriteriaBuilder();
         CriteriaQuery<User> criteria = cb.createQuery(User.class);
@@ -45,7 +64,7 @@ public class UserRepository {
     }
 
     User create(User user) throws Exception {
-        log.info("UserRepository.create() - Creating " + user.getName());
+        log.info("UserRepository.create() - Creating {}", user.getName());
 
         em.persist(user);
 
@@ -53,22 +72,35 @@ public class UserRepository {
     }
 
     User update(User user) throws Exception {
-        log.info("UserRepository.update() - Updating " + user.getName());
+        log.info("UserRepository.update() - Updating {}", user.getName());
+
+        if (user.getVersion() != null) {
+            // Reattached as it is, without reading the stored User: the flush is the only statement, and matches no row
+            // if the User has changed or gone since that version
+            em.unwrap(Session.class).update(user);
+            em.flush();
+            return user;
+        }
 
-        em.merge(user);
+        // Otherwise the update applies on top of the current version, and merge() reuses the User found here
+        User current = em.find(User.class, user.getId());
+        if (current == null) {
+            throw new NoResultException("No User with the id " + user.getId());
+        }
+        user.setVersion(current.getVersion());
 
-        return user;
-    }
+        User updated = em.merge(user);
+        em.flush();
 
-    User delete(User user) throws Exception {
-        log.info("UserRepository.delete() - Deleting " + user.getName());
+        return updated;
+    }
 
-        if (user.getId() != null) {
-            em.remove(em.merge(user));
-        } else {
-            log.info("UserRepository.delete() - No ID was found so can't Delete.");
-        }
+    /**
+     * @return Whether there was a User with the id to delete
+     */
+    boolean deleteById(Long id) throws Exception {
+        log.info("UserRepository.deleteById() - Deleting User {}", id);
 
-        return user;
+        return em.createNamedQuery(User.DELETE_BY_ID).setParameter("id", id).executeUpdate() > 0;
     }
 }
@@ -7,21 +7,27 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.jboss.resteasy.reactive.Cache;
 import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
+import uk.ac.newcastle.enterprisemiddleware.util.ETags;
+import uk.ac.newcastle.enterprisemiddleware.util.KeysetPage;
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
 import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.NoResultException;
+import javax.persistence.OptimisticLockException;
 import javax.transaction.Transactional;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Logger;
 
 @Path("/users")
 @Consumes(MediaType.APPLICATION_JSON)
@@ -29,16 +35,28 @@ import java.util.logging.Logger;
 public class UserRestService {
     @Inject
     @Named("logger")
-    Logger log;
+    Log log;
 
     @Inject
     UserService service;
 
     @GET
-    @Operation(summary = "Fetch all Users", description = "Returns a JSON array of all stored User objects.")
-    public Response retrieveAllUsers() {
-        List<User> users = service.findAllOrderedByName();
-        return Response.ok(users).build();
+    @Operation(summary = "Fetch all Users", description = "Returns a JSON array of stored User objects, a page at a time.")
+    public Response retrieveAllUsers(
+            @Parameter(description = "Cursor from the Link rel=\"next\" header of the previous page")
+            @QueryParam("after") String after,
+            @Parameter(description = "Maximum number of Users to return")
+            @QueryParam("limit") Integer limit,
+            @Context UriInfo uriInfo) {
+        int pageSize = KeysetPage.limit(limit);
+        List<User> users;
+        if (after == null) {
+            users = service.findAllOrderedByName(null, null, pageSize + 1);
+        } else {
+            String[] keys = KeysetPage.decode(after, 2);
+            users = service.findAllOrderedByName(keys[0], KeysetPage.id(keys, 1), pageSize + 1);
+        }
+        return KeysetPage.response(users, pageSize, uriInfo, u -> KeysetPage.encode(u.getName(), u.getId()));
     }
 
     @GET
@@ -49,20 +67,28 @@ public class UserRestService {
     )
     @APIResponses(value = {
             @APIResponse(responseCode = "200", description = "User found"),
+            @APIResponse(responseCode = "304", description = "The client's copy is current"),
             @APIResponse(responseCode = "404", description = "User with id not found")
     })
     public Response retrieveUserById(
             @Parameter(description = "Id of User to be fetched", required = true)
             @Schema(minimum = "0", required = true)
-            @PathParam("id") long id) {
+            @PathParam("id") long id,
+            @Context Request request) {
 
+        // The User usually comes from the second-level cache, so the version costs no query; an unchanged one is
+        // just not serialized
         User user = service.findById(id);
         if (user == null) {
             throw new RestServiceException("No User with the id " + id + " was found!", Response.Status.NOT_FOUND);
         }
-        log.info("findById " + id + ": found User = " + user);
+        Response notModified = ETags.notModified(request, id, user.getVersion());
+        if (notModified != null) {
+            return notModified;
+        }
+        log.fine("findById {}: found User = {}", id, user);
 
-        return Response.ok(user).build();
+        return Response.ok(user).tag(ETags.of(user.getId(), user.getVersion())).build();
     }
 
     @GET
@@ -73,11 +99,13 @@ public class UserRestService {
     )
     @APIResponses(value = {
             @APIResponse(responseCode = "200", description = "User found"),
+            @APIResponse(responseCode = "304", description = "The client's copy is current"),
             @APIResponse(responseCode = "404", description = "User with email not found")
     })
     public Response retrieveUserByEmail(
             @Parameter(description = "Email of User to be fetched", required = true)
-            @PathParam("email") String email) {
+            @PathParam("email") String email,
+            @Context Request request) {
 
         User user;
         try {
@@ -85,7 +113,11 @@ public class UserRestService {
         } catch (NoResultException e) {
             throw new RestServiceException("No User with the email " + email + " was found!", Response.Status.NOT_FOUND);
         }
-        return Response.ok(user).build();
+        Response notModified = ETags.notModified(request, user.getId(), user.getVersion());
+        if (notModified != null) {
+            return notModified;
+        }
+        return Response.ok(user).tag(ETags.of(user.getId(), user.getVersion())).build();
     }
 
     @POST
@@ -133,7 +165,7 @@ public class UserRestService {
             throw new RestServiceException(e);
         }
 
-        log.info("createUser completed. User = " + user);
+        log.info("createUser completed. User = {}", user);
         return builder.build();
     }
 
@@ -145,6 +177,8 @@ public class UserRestService {
             @APIResponse(responseCode = "400", description = "Invalid User supplied in request body"),
             @APIResponse(responseCode = "404", description = "User with id not found"),
             @APIResponse(responseCode = "409", description = "User details supplied in request body conflict with another existing User"),
+            @APIResponse(responseCode = "412", description = "The User has changed since the version given in If-Match"),
+            @APIResponse(responseCode = "428", description = "No If-Match header was given"),
             @APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request")
     })
     @Transactional
@@ -153,7 +187,9 @@ public class UserRestService {
             @Schema(minimum = "0")
             @PathParam("id") long id,
             @Parameter(description = "JSON representation of User object to be updated in the database", required = true)
-            User user) {
+            User user,
+            @Parameter(description = "ETag of the version of the User the update is based on, or *", required = true)
+            @HeaderParam("If-Match") String ifMatch) {
 
         if (user == null || user.getId() == null) {
             throw new RestServiceException("Invalid User supplied in request body", Response.Status.BAD_REQUEST);
@@ -166,15 +202,22 @@ public class UserRestService {
                     responseObj, Response.Status.CONFLICT);
         }
 
-        if (service.findById(user.getId()) == null) {
-            throw new RestServiceException("No User with the id " + id + " was found!", Response.Status.NOT_FOUND);
-        }
+        user.setVersion(ETags.expectedVersion(id, ifMatch));
 
         Response.ResponseBuilder builder;
 
         try {
-            service.update(user);
-            builder = Response.ok(user);
+            User updated = service.update(user);
+            builder = Response.ok(updated).tag(ETags.of(updated.getId(), updated.getVersion()));
+
+        } catch (NoResultException e) {
+            throw new RestServiceException("No User with the id " + id + " was found!", Response.Status.NOT_FOUND, e);
+
+        } catch (OptimisticLockException e) {
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("version", "The User has been changed by someone else, please fetch it again");
+            throw new RestServiceException("User details supplied in request body are out of date",
+                    responseObj, Response.Status.PRECONDITION_FAILED, e);
 
         } catch (ConstraintViolationException ce) {
             Map<String, String> responseObj = new HashMap<>();
@@ -193,7 +236,7 @@ public class UserRestService {
             throw new RestServiceException(e);
         }
 
-        log.info("updateUser completed. User = " + user);
+        log.info("updateUser completed. User = {}", user);
         return builder.build();
     }
 
@@ -212,21 +255,18 @@ public class UserRestService {
             @Schema(minimum = "0")
             @PathParam("id") long id) {
 
-        Response.ResponseBuilder builder;
-
-        User user = service.findById(id);
-        if (user == null) {
-            throw new RestServiceException("No User with the id " + id + " was found!", Response.Status.NOT_FOUND);
-        }
+        boolean deleted;
 
         try {
-            service.delete(user);
-            builder = Response.noContent();
+            deleted = service.delete(id);
 
         } catch (Exception e) {
             throw new RestServiceException(e);
         }
-        log.info("deleteUser completed. User = " + user);
-        return builder.build();
+        if (!deleted) {
+            throw new RestServiceException("No User with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+        log.info("deleteUser completed. User = {}", id);
+        return Response.noContent().build();
     }
 }
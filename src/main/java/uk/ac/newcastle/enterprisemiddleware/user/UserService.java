@@ -4,25 +4,28 @@ import org.eclipse.microprofile.rest.client.inject.RestClient;
 import uk.ac.newcastle.enterprisemiddleware.area.Area;
 import uk.ac.newcastle.enterprisemiddleware.area.AreaService;
 import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
-import uk.ac.newcastle.enterprisemiddleware.review.Review;
+import uk.ac.newcastle.enterprisemiddleware.restaurant.RestaurantRatingService;
 import uk.ac.newcastle.enterprisemiddleware.review.ReviewRepository;
+import uk.ac.newcastle.enterprisemiddleware.util.Log;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.NoResultException;
 import javax.transaction.Transactional;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.core.Response;
+import java.util.HashMap;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Map;
 
 @Dependent
 public class UserService {
 
     @Inject
     @Named("logger")
-    Logger log;
+    Log log;
 
     @Inject
     UserValidator validator;
@@ -33,8 +36,11 @@ public class UserService {
     @Inject
     ReviewRepository reviewRepository; // Add ReviewRepository Injection
 
-    List<User> findAllOrderedByName() {
-        return userRepository.findAllOrderedByName();
+    @Inject
+    RestaurantRatingService ratingService;
+
+    List<User> findAllOrderedByName(String name, Long id, int limit) {
+        return userRepository.findAllOrderedByName(name, id, limit);
     }
 
     public User findById(Long id) {
@@ -46,7 +52,7 @@ public class UserService {
     }
 
     User create(User user) throws Exception {
-        log.info("UserService.create() - Creating " + user.getName());
+        log.info("UserService.create() - Creating {}", user.getName());
 
         // Validate the user data
         validator.validateUser(user);
@@ -56,7 +62,13 @@ public class UserService {
     }
 
     User update(User user) throws Exception {
-        log.info("UserService.update() - Updating " + user.getName());
+        log.info("UserService.update() - Updating {}", user.getName());
+
+        // An unconditional update reads the User anyway, so a missing one is reported before anything wrong with the
+        // new data. A conditional one is not read at all, and fails on its version if the User is missing.
+        if (user.getVersion() == null && userRepository.findById(user.getId()) == null) {
+            throw new NoResultException("No User with the id " + user.getId());
+        }
 
         // Validate the user data
         validator.validateUser(user);
@@ -66,24 +78,18 @@ public class UserService {
     }
 
     @Transactional
-    User delete(User user) throws Exception {
-        log.info("UserService.delete() - Deleting " + user.getName());
-
-        User deletedUser = null;
-
-        if (user.getId() != null) {
-            // firstly delete all reviews associated with the user
-            List<Review> reviews = reviewRepository.findByUserId(user.getId());
-            for (Review review : reviews) {
-                reviewRepository.delete(review);
-            }
-            // secondly delete the user
-            deletedUser = userRepository.delete(user);
-        } else {
-            log.info("UserService.delete() - No ID was found so can't Delete.");
-        }
+    boolean delete(Long id) throws Exception {
+        log.info("UserService.delete() - Deleting User {}", id);
 
-        return deletedUser;
+        // firstly delete all reviews associated with the user at once, and take them out of the rating totals
+        Map<Long, Map<Integer, Long>> counts = new HashMap<>();
+        for (Object[] row : reviewRepository.countByUserId(id)) {
+            counts.computeIfAbsent((Long) row[0], restaurantId -> new HashMap<>()).put((Integer) row[1], (Long) row[2]);
+        }
+        reviewRepository.deleteByUserId(id);
+        counts.forEach(ratingService::reviewsRemoved);
+        // secondly delete the user
+        return userRepository.deleteById(id);
     }
 }
 
@@ -2,7 +2,6 @@ package uk.ac.newcastle.enterprisemiddleware.user;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import javax.persistence.NoResultException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
@@ -34,25 +33,7 @@ public class UserValidator {
     }
 
     boolean emailAlreadyExists(String email, Long id) {
-        User user = null;
-        User userWithID = null;
-        try {
-            user = userRepository.findByEmail(email);
-        } catch (NoResultException e) {
-            // ignore
-        }
-
-        if (user != null && id != null) {
-            try {
-                userWithID = userRepository.findById(id);
-                if (userWithID != null && userWithID.getEmail().equals(email)) {
-                    user = null;
-                }
-            } catch (NoResultException e) {
-                // ignore
-            }
-        }
-        return user != null;
+        return userRepository.emailExists(email, id);
     }
 }
 
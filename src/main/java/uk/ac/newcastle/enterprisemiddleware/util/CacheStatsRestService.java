@@ -0,0 +1,76 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import uk.ac.newcastle.enterprisemiddleware.area.CachedAreaService;
+import uk.ac.newcastle.enterprisemiddleware.contact.Contact;
+import uk.ac.newcastle.enterprisemiddleware.restaurant.Restaurant;
+import uk.ac.newcastle.enterprisemiddleware.user.User;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Reports the hit and miss counters of the application caches: the Hibernate second-level cache of each cached
+ * entity, the Hibernate query cache, and the area code caches.</p>
+ *
+ * <p>The counters are cumulative since startup.</p>
+ */
+@Path("/cache/stats")
+@Produces(MediaType.APPLICATION_JSON)
+public class CacheStatsRestService {
+
+    private static final Class<?>[] CACHED_ENTITIES = {Contact.class, User.class, Restaurant.class};
+
+    @Inject
+    SessionFactory sessionFactory;
+
+    @Inject
+    CachedAreaService areaService;
+
+    @GET
+    @Operation(summary = "Fetch cache statistics", description = "Returns the hit, miss and put counters of the entity, query and area code caches.")
+    public Response retrieveCacheStats() {
+        Statistics statistics = sessionFactory.getStatistics();
+
+        Map<String, Object> entities = new LinkedHashMap<>();
+        for (Class<?> entity : CACHED_ENTITIES) {
+            CacheRegionStatistics region = statistics.getDomainDataRegionStatistics(entity.getName());
+            Map<String, Object> counters = new LinkedHashMap<>();
+            counters.put("hits", region.getHitCount());
+            counters.put("misses", region.getMissCount());
+            counters.put("puts", region.getPutCount());
+            counters.put("size", region.getElementCountInMemory());
+            entities.put(entity.getSimpleName(), counters);
+        }
+
+        Map<String, Object> queries = new LinkedHashMap<>();
+        queries.put("hits", statistics.getQueryCacheHitCount());
+        queries.put("misses", statistics.getQueryCacheMissCount());
+        queries.put("puts", statistics.getQueryCachePutCount());
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entities", entities);
+        stats.put("queries", queries);
+        stats.put("areas", toMap(areaService.stats()));
+        stats.put("unknownAreas", toMap(areaService.unknownStats()));
+        return Response.ok(stats).build();
+    }
+
+    private static Map<String, Object> toMap(CacheStats cacheStats) {
+        Map<String, Object> counters = new LinkedHashMap<>();
+        counters.put("hits", cacheStats.hitCount());
+        counters.put("misses", cacheStats.missCount());
+        counters.put("evictions", cacheStats.evictionCount());
+        return counters;
+    }
+}
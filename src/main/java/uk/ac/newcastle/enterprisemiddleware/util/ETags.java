@@ -0,0 +1,96 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+
+/**
+ * <p>Entity tags of the entities returned by the REST services.</p>
+ *
+ * <p>The tag of an entity is built from its id and its <code>@Version</code>, which Hibernate increments on every
+ * update, so it changes exactly when the entity does. It is a strong tag: two responses with the same tag are
+ * byte-for-byte identical.</p>
+ *
+ * <p>An entity whose representation embeds other entities, such as a Review with its User and Restaurant, also folds
+ * their versions into its tag, after its own. Its tag then changes whenever any of them does.</p>
+ *
+ * <p>A GET by id checks the current version against <code>If-None-Match</code> with
+ * {@link #notModified(Request, Long, Long)}, and only serializes the entity when the client's copy is out of date.
+ * Contacts, Users and Restaurants are loaded first, as they are usually in the second-level cache and their version
+ * then costs no query. A Review is not cached, so its versions are read alone before it is loaded.</p>
+ *
+ * <p>A PUT must say in <code>If-Match</code> which version it is based on, and reads it with
+ * {@link #expectedVersion(Long, String)}. The update is then a single <code>UPDATE ... WHERE id = ? AND version = ?</code>
+ * with no read of the stored entity, and fails the precondition when no row matches.</p>
+ */
+public final class ETags {
+
+    private ETags() {
+    }
+
+    /**
+     * @param id The id of the entity
+     * @param version The version of the entity
+     * @param embedded The versions of the entities embedded in its representation, if any
+     * @return The entity tag of that version of the entity
+     */
+    public static EntityTag of(Long id, Long version, Long... embedded) {
+        StringBuilder tag = new StringBuilder().append(id).append('-').append(version);
+        for (Long other : embedded) {
+            tag.append('-').append(other);
+        }
+        return new EntityTag(tag.toString());
+    }
+
+    /**
+     * <p>Checks the preconditions of a GET request against the current version of an entity.</p>
+     *
+     * @param request The request
+     * @param id The id of the entity
+     * @param version The current version of the entity
+     * @param embedded The current versions of the entities embedded in its representation, if any
+     * @return A 304 NOT MODIFIED response if the client already has this version, or null if the entity must be sent
+     */
+    public static Response notModified(Request request, Long id, Long version, Long... embedded) {
+        Response.ResponseBuilder builder = request.evaluatePreconditions(of(id, version, embedded));
+        return builder == null ? null : builder.build();
+    }
+
+    /**
+     * <p>Reads the version of an entity that an <code>If-Match</code> header expects.</p>
+     *
+     * <p>Only a single strong tag is understood, which is what a client that has read the entity sends back. Any other
+     * tag cannot match a tag of this entity, so the precondition fails. The versions of embedded entities are not
+     * checked, as an update only ever writes the entity itself.</p>
+     *
+     * <p>The header is required: without it the current version would have to be read before every update. A client
+     * that means to overwrite whatever is stored sends <code>*</code>, and pays for that read.</p>
+     *
+     * @param id The id of the entity
+     * @param ifMatch The value of the If-Match header; may be null
+     * @return The version expected, or null if the header is <code>*</code>
+     * @throws RestServiceException With 428 PRECONDITION REQUIRED if the header is absent, or 412 PRECONDITION FAILED
+     * if it cannot match the entity
+     */
+    public static Long expectedVersion(Long id, String ifMatch) {
+        if (ifMatch == null) {
+            throw new RestServiceException("An update must give the entity tag it is based on in If-Match",
+                    Response.Status.PRECONDITION_REQUIRED);
+        }
+        if (ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        String prefix = "\"" + id + "-";
+        if (tag.startsWith(prefix) && tag.endsWith("\"") && tag.length() > prefix.length() + 1) {
+            int end = tag.indexOf('-', prefix.length());
+            try {
+                return Long.valueOf(tag.substring(prefix.length(), end < 0 ? tag.length() - 1 : end));
+            } catch (NumberFormatException e) {
+                // Not one of our tags, so it cannot match
+            }
+        }
+        throw new RestServiceException("The entity tag " + tag + " does not match the current one",
+                Response.Status.PRECONDITION_FAILED);
+    }
+}
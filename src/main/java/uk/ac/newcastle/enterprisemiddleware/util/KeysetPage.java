@@ -0,0 +1,131 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.ws.rs.core.Link;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * <p>Helpers for keyset (cursor) pagination of the list endpoints.</p>
+ *
+ * <p>A page is requested with <code>?limit=N</code>, and the following one with <code>?after=&lt;cursor&gt;</code>
+ * taken from the <code>Link: &lt;...&gt;; rel="next"</code> header of the previous response. The body stays a plain
+ * JSON array.</p>
+ *
+ * <p>The cursor holds the values of the ORDER BY columns of the last row of the page, ending with the id so that it is
+ * unique. The next page is fetched with a <code>WHERE (sort columns) &gt; (cursor values)</code> condition on the same
+ * index as the ORDER BY, so every page costs the same no matter how deep into the list it is, and rows inserted or
+ * deleted between requests never shift a page. To the client the cursor is opaque: a base64url encoded JSON array of
+ * strings.</p>
+ */
+public final class KeysetPage {
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private KeysetPage() {
+    }
+
+    /**
+     * <p>Checks the requested page size.</p>
+     *
+     * @param limit The <code>limit</code> query parameter; may be null
+     * @return The page size to use
+     * @throws RestServiceException 400 BAD_REQUEST if the limit is not between 1 and {@link #MAX_LIMIT}
+     */
+    public static int limit(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_LIMIT;
+        }
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new RestServiceException("The limit must be between 1 and " + MAX_LIMIT, Response.Status.BAD_REQUEST);
+        }
+        return limit;
+    }
+
+    /**
+     * <p>Builds the cursor pointing just after a row.</p>
+     *
+     * @param keys The values of the sort columns of the row, in ORDER BY order
+     * @return The opaque cursor
+     */
+    public static String encode(Object... keys) {
+        String[] values = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = String.valueOf(keys[i]);
+        }
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(MAPPER.writeValueAsBytes(values));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * <p>Reads a cursor built by {@link #encode(Object...)}.</p>
+     *
+     * @param cursor The <code>after</code> query parameter
+     * @param keys The number of sort columns the cursor must hold
+     * @return The values of the sort columns, in ORDER BY order
+     * @throws RestServiceException 400 BAD_REQUEST if the cursor is malformed
+     */
+    public static String[] decode(String cursor, int keys) {
+        try {
+            String[] values = MAPPER.readValue(Base64.getUrlDecoder().decode(cursor), String[].class);
+            if (values.length == keys) {
+                return values;
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            // Fall through to the error below
+        }
+        throw new RestServiceException("The cursor supplied in 'after' is not valid", Response.Status.BAD_REQUEST);
+    }
+
+    /**
+     * <p>Reads the numeric id at the given position of a decoded cursor.</p>
+     *
+     * @throws RestServiceException 400 BAD_REQUEST if it is not a number
+     */
+    public static Long id(String[] keys, int index) {
+        try {
+            return Long.valueOf(keys[index]);
+        } catch (NumberFormatException e) {
+            throw new RestServiceException("The cursor supplied in 'after' is not valid", Response.Status.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * <p>Builds the 200 OK Response for a page.</p>
+     *
+     * <p>The rows must have been fetched with a limit of <code>limit + 1</code>: the extra row only tells that there is
+     * a next page, and is left out of the body. In that case a <code>Link</code> header with <code>rel="next"</code>
+     * points at the next page.</p>
+     *
+     * @param rows Up to limit + 1 rows, in ORDER BY order
+     * @param limit The page size
+     * @param uriInfo The request URI, used to build the next link
+     * @param cursor Builds the cursor of a row with {@link #encode(Object...)}
+     * @return The Response holding the page
+     */
+    public static <T> Response response(List<T> rows, int limit, UriInfo uriInfo, Function<T, String> cursor) {
+        if (rows.size() <= limit) {
+            return Response.ok(rows).build();
+        }
+
+        List<T> page = rows.subList(0, limit);
+        Link next = Link.fromUriBuilder(uriInfo.getRequestUriBuilder()
+                        .replaceQueryParam("after", cursor.apply(page.get(limit - 1)))
+                        .replaceQueryParam("limit", limit))
+                .rel("next")
+                .build();
+        return Response.ok(page).links(next).build();
+    }
+}
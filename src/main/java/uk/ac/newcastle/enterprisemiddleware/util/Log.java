@@ -0,0 +1,171 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Thin wrapper of a {@link Logger} whose messages cost nothing unless their level is enabled.</p>
+ *
+ * <p>A message is a pattern with <code>{}</code> placeholders, filled with the arguments in order only once the level
+ * is known to be enabled, so no string is concatenated and no <code>toString()</code> is called for a message that is
+ * not logged. Calls with one or two arguments do not even allocate the varargs array.</p>
+ *
+ * <p>A {@link Throwable} passed as the last argument, with no placeholder left for it, is logged with its stack trace
+ * rather than formatted into the message.</p>
+ *
+ * <pre>
+ * log.info("ContactRepository.create() - Creating {} {}", contact.getFirstName(), contact.getLastName());
+ * log.warning("ContactService.importBatch() - Batch starting at {} rolled back", offset, e);
+ * </pre>
+ *
+ * <p>It is produced for each injection point by {@link Resources#produceLog(javax.enterprise.inject.spi.InjectionPoint)}.</p>
+ */
+public final class Log {
+
+    private static final String PLACEHOLDER = "{}";
+
+    private final Logger logger;
+
+    public Log(Logger logger) {
+        this.logger = logger;
+    }
+
+    public boolean isLoggable(Level level) {
+        return logger.isLoggable(level);
+    }
+
+    public void fine(String message) {
+        logger.fine(message);
+    }
+
+    public void fine(String message, Throwable thrown) {
+        logger.log(Level.FINE, message, thrown);
+    }
+
+    public void fine(String pattern, Object arg) {
+        log(Level.FINE, pattern, arg);
+    }
+
+    public void fine(String pattern, Object arg1, Object arg2) {
+        log(Level.FINE, pattern, arg1, arg2);
+    }
+
+    public void fine(String pattern, Object... args) {
+        log(Level.FINE, pattern, args);
+    }
+
+    public void info(String message) {
+        logger.info(message);
+    }
+
+    public void info(String message, Throwable thrown) {
+        logger.log(Level.INFO, message, thrown);
+    }
+
+    public void info(String pattern, Object arg) {
+        log(Level.INFO, pattern, arg);
+    }
+
+    public void info(String pattern, Object arg1, Object arg2) {
+        log(Level.INFO, pattern, arg1, arg2);
+    }
+
+    public void info(String pattern, Object... args) {
+        log(Level.INFO, pattern, args);
+    }
+
+    public void warning(String message) {
+        logger.warning(message);
+    }
+
+    public void warning(String message, Throwable thrown) {
+        logger.log(Level.WARNING, message, thrown);
+    }
+
+    public void warning(String pattern, Object arg) {
+        log(Level.WARNING, pattern, arg);
+    }
+
+    public void warning(String pattern, Object arg1, Object arg2) {
+        log(Level.WARNING, pattern, arg1, arg2);
+    }
+
+    public void warning(String pattern, Object... args) {
+        log(Level.WARNING, pattern, args);
+    }
+
+    public void severe(String message) {
+        logger.severe(message);
+    }
+
+    public void severe(String message, Throwable thrown) {
+        logger.log(Level.SEVERE, message, thrown);
+    }
+
+    public void severe(String pattern, Object arg) {
+        log(Level.SEVERE, pattern, arg);
+    }
+
+    public void severe(String pattern, Object arg1, Object arg2) {
+        log(Level.SEVERE, pattern, arg1, arg2);
+    }
+
+    public void severe(String pattern, Object... args) {
+        log(Level.SEVERE, pattern, args);
+    }
+
+    private void log(Level level, String pattern, Object arg) {
+        if (logger.isLoggable(level)) {
+            publish(level, pattern, new Object[] {arg});
+        }
+    }
+
+    private void log(Level level, String pattern, Object arg1, Object arg2) {
+        if (logger.isLoggable(level)) {
+            publish(level, pattern, new Object[] {arg1, arg2});
+        }
+    }
+
+    private void log(Level level, String pattern, Object[] args) {
+        if (logger.isLoggable(level)) {
+            publish(level, pattern, args);
+        }
+    }
+
+    private void publish(Level level, String pattern, Object[] args) {
+        logger.log(level, format(pattern, args), thrown(pattern, args));
+    }
+
+    /**
+     * <p>Replaces each <code>{}</code> of the pattern with the next argument. Placeholders left over are kept as they
+     * are, and arguments left over are ignored.</p>
+     */
+    static String format(String pattern, Object... args) {
+        StringBuilder message = new StringBuilder(pattern.length() + 16 * args.length);
+        int from = 0;
+        for (Object arg : args) {
+            int at = pattern.indexOf(PLACEHOLDER, from);
+            if (at < 0) {
+                break;
+            }
+            message.append(pattern, from, at).append(arg);
+            from = at + PLACEHOLDER.length();
+        }
+        return message.append(pattern, from, pattern.length()).toString();
+    }
+
+    /**
+     * @return The last argument if it is a {@link Throwable} with no placeholder left for it; or null
+     */
+    static Throwable thrown(String pattern, Object... args) {
+        if (args.length == 0 || !(args[args.length - 1] instanceof Throwable)) {
+            return null;
+        }
+        int placeholders = 0;
+        for (int at = pattern.indexOf(PLACEHOLDER); at >= 0 && placeholders < args.length;
+                at = pattern.indexOf(PLACEHOLDER, at + PLACEHOLDER.length())) {
+            placeholders++;
+        }
+        return placeholders < args.length ? (Throwable) args[args.length - 1] : null;
+    }
+}
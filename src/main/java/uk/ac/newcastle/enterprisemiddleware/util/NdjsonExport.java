@@ -0,0 +1,67 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>Streams the result of a named query to the client as newline delimited JSON (NDJSON), one entity per line.</p>
+ *
+ * <p>The query runs in a {@link StatelessSession}, which has no persistence context, so an entity is garbage as soon
+ * as it has been written out. Rows are read through a forward-only cursor, {@link #FETCH_SIZE} at a time, and the
+ * output is flushed to the client every {@link #FETCH_SIZE} rows. Memory use therefore stays flat however large the
+ * table is.</p>
+ *
+ * <p>The query must fetch every association that is serialized (with JOIN FETCH), as a stateless session cannot load
+ * them lazily.</p>
+ */
+public class NdjsonExport implements StreamingOutput {
+
+    public static final String MEDIA_TYPE = "application/x-ndjson";
+
+    static final int FETCH_SIZE = 500;
+
+    private final SessionFactory sessionFactory;
+    private final String queryName;
+    private final ObjectWriter writer;
+
+    /**
+     * @param sessionFactory The SessionFactory to open the stateless session from
+     * @param queryName The name of the query selecting the entities to export
+     * @param mapper The ObjectMapper used to serialize each entity
+     */
+    public NdjsonExport(SessionFactory sessionFactory, String queryName, ObjectMapper mapper) {
+        this.sessionFactory = sessionFactory;
+        this.queryName = queryName;
+        // Each value is written on its own, so stop the generator closing the response after the first one
+        this.writer = mapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        try (StatelessSession session = sessionFactory.openStatelessSession();
+             ScrollableResults rows = session.getNamedQuery(queryName)
+                     .setReadOnly(true)
+                     .setFetchSize(FETCH_SIZE)
+                     .scroll(ScrollMode.FORWARD_ONLY)) {
+
+            int count = 0;
+            while (rows.next()) {
+                writer.writeValue(output, rows.get(0));
+                output.write('\n');
+                if (++count % FETCH_SIZE == 0) {
+                    output.flush();
+                }
+            }
+        }
+        output.flush();
+    }
+}
@@ -0,0 +1,34 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * <p>Writes an {@link NdjsonExport} to the response.</p>
+ *
+ * <p>The Jackson writer also claims {@value NdjsonExport#MEDIA_TYPE} for any type, and would otherwise try to serialize
+ * the export object itself instead of letting it stream the rows.</p>
+ */
+@Provider
+@Produces(NdjsonExport.MEDIA_TYPE)
+public class NdjsonExportWriter implements MessageBodyWriter<NdjsonExport> {
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return NdjsonExport.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public void writeTo(NdjsonExport export, Class<?> type, Type genericType, Annotation[] annotations,
+                        MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+            throws IOException {
+        export.write(entityStream);
+    }
+}
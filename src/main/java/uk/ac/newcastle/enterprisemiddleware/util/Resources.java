@@ -25,8 +25,8 @@ public class Resources {
 
     @Produces
     @Named("logger")
-    public Logger produceLog(InjectionPoint injectionPoint) {
-        return Logger.getLogger(injectionPoint.getMember().getDeclaringClass().getName());
+    public Log produceLog(InjectionPoint injectionPoint) {
+        return new Log(Logger.getLogger(injectionPoint.getMember().getDeclaringClass().getName()));
     }
 //
 //    @Produces
@@ -7,7 +7,6 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.ExceptionMapper;
 import javax.ws.rs.ext.Provider;
-import java.util.logging.Logger;
 
 /**
  * <p>Handler object to convert {@link RestServiceException} exception into an actual {@link Response} containing JSON
@@ -20,7 +19,7 @@ public class RestServiceExceptionMapper implements ExceptionMapper<RestServiceEx
 
     @Inject
     @Named("logger")
-    Logger log;
+    Log log;
 
     @Context
     HttpHeaders headers;
@@ -28,8 +27,8 @@ public class RestServiceExceptionMapper implements ExceptionMapper<RestServiceEx
     @Override
     public Response toResponse(final RestServiceException e) {
 
-        log.severe("Mapping RestServiceException with status + \"" + e.getStatus() + "\", message: \"" + e.getMessage()
-                + "\" and stack trace:" + System.getProperty("line.separator") + e);
+        log.severe("Mapping RestServiceException with status + \"{}\", message: \"{}\" and stack trace:",
+                e.getStatus(), e.getMessage(), e);
 
         Response.ResponseBuilder builder = Response.status(e.getStatus()).entity(new ErrorMessage(e.getMessage(), e.getReasons()));
         return builder.build();
@@ -5,12 +5,21 @@
 -- insert into myentity (id, field) values(nextval('hibernate_sequence'), 'field-3');
 
 -- Insert Users
-insert into users (email, name, phoneNumber) values ('alice@email.com', 'TestUserAlice', '01234567890');
-insert into users (email, name, phoneNumber) values ('bob@email.com', 'TestUserBob', '09876543210');
+insert into users (id, version, email, name, phoneNumber) values (1, 0, 'alice@email.com', 'TestUserAlice', '01234567890');
+insert into users (id, version, email, name, phoneNumber) values (2, 0, 'bob@email.com', 'TestUserBob', '09876543210');
 
 -- Insert Restaurants
-insert into restaurants (name, phoneNumber, postcode) values ('TestRestaurantA', '01234567890', 'AB123C');
-insert into restaurants (name, phoneNumber, postcode) values ('TestRestaurantB', '09876543210', 'XY987Z');
+insert into restaurants (id, version, name, phoneNumber, postcode) values (1, 0, 'TestRestaurantA', '01234567890', 'AB123C');
+insert into restaurants (id, version, name, phoneNumber, postcode) values (2, 0, 'TestRestaurantB', '09876543210', 'XY987Z');
 
 -- Insert Reviews
-insert into reviews (rating, review, restaurant_id, user_id) values (5, 'Great!', (select id from restaurants where name = 'TestRestaurantA'), (select id from users where email = 'alice@email.com'));
+insert into reviews (id, version, rating, review, restaurant_id, user_id) values (1, 0, 5, 'Great!', (select id from restaurants where name = 'TestRestaurantA'), (select id from users where email = 'alice@email.com'));
+
+-- Insert the rating totals matching the Reviews above
+insert into restaurant_rating_stats (restaurant_id, review_count, rating_sum, rating_0, rating_1, rating_2, rating_3, rating_4, rating_5) values (1, 1, 5, 0, 0, 0, 0, 0, 1);
+insert into restaurant_rating_stats (restaurant_id, review_count, rating_sum, rating_0, rating_1, rating_2, rating_3, rating_4, rating_5) values (2, 0, 0, 0, 0, 0, 0, 0, 0);
+
+-- Ids are allocated from sequences in blocks (pooled-lo), so move them past the ids used above
+alter sequence users_seq restart with 3;
+alter sequence restaurants_seq restart with 3;
+alter sequence reviews_seq restart with 2;
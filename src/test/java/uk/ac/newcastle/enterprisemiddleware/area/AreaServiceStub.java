@@ -0,0 +1,269 @@
+package uk.ac.newcastle.enterprisemiddleware.area;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Embedded stand-in for the upstream area-api, implementing the <code>/areas</code> and <code>/areas/{id}</code>
+ * contract of {@link AreaService} on top of the JDK HTTP server.</p>
+ *
+ * <p>The area codes are read from <code>areas.csv</code> on the classpath. Unknown codes are answered with
+ * 404 NOT_FOUND, just like the real service.</p>
+ *
+ * <p>Every request can be slowed down by a fixed latency plus a random jitter, and a share of requests can be failed
+ * with 503 SERVICE_UNAVAILABLE. The random numbers come from a seeded generator so a run can be repeated exactly.</p>
+ *
+ * <p>The latency and error rate can be changed while the stub is running, extra areas can be served, and the requests
+ * for each area code are counted, so tests can check how many lookups actually reached the upstream.</p>
+ *
+ * <p>It is started for the integration tests by {@link AreaServiceStubResource}, and can be run on its own for
+ * benchmarks with the <code>area.stub.*</code> system properties, see {@link #main(String[])}.</p>
+ */
+public class AreaServiceStub {
+
+    private static final Pattern AREA_PATH = Pattern.compile("^/areas/?(?:([0-9]+)/?)?$");
+
+    private final Map<Integer, String> areas;
+    private final String allAreas;
+    private volatile long latencyMillis;
+    private final long jitterMillis;
+    private volatile double errorRate;
+    private final Random random;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final Map<Integer, AtomicLong> areaRequests = new ConcurrentHashMap<>();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param latencyMillis Fixed delay added to every response
+     * @param jitterMillis Upper bound of the random delay added on top of latencyMillis
+     * @param errorRate Share of requests, between 0 and 1, answered with 503 SERVICE_UNAVAILABLE
+     * @param seed Seed of the random generator used for the jitter and the errors
+     */
+    public AreaServiceStub(long latencyMillis, long jitterMillis, double errorRate, long seed) {
+        if (latencyMillis < 0 || jitterMillis < 0) {
+            throw new IllegalArgumentException("Latency and jitter must not be negative");
+        }
+        if (errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("Error rate must be between 0 and 1");
+        }
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.errorRate = errorRate;
+        this.random = new Random(seed);
+        Map<Integer, String> listed = loadAreas();
+        this.areas = new ConcurrentHashMap<>(listed);
+        this.allAreas = "[" + String.join(",", listed.values()) + "]";
+    }
+
+    /**
+     * <p>Starts listening on the given port, or on a free port if it is 0.</p>
+     *
+     * @param port The port to listen on
+     * @return This stub
+     */
+    public AreaServiceStub start(int port) {
+        try {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // Requests sleep while simulating latency, so give every connection its own thread
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/areas", this::handle);
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * @return The base URL to use as <code>quarkus.rest-client.area-api.url</code>
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * @param id The 3 digit US area code
+     * @return The number of requests received for that single area code
+     */
+    public long getRequestCount(int id) {
+        AtomicLong count = areaRequests.get(id);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @param latencyMillis Fixed delay added to every response from now on
+     */
+    public void setLatency(long latencyMillis) {
+        if (latencyMillis < 0) {
+            throw new IllegalArgumentException("Latency must not be negative");
+        }
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param errorRate Share of requests, between 0 and 1, answered with 503 SERVICE_UNAVAILABLE from now on
+     */
+    public void setErrorRate(double errorRate) {
+        if (errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("Error rate must be between 0 and 1");
+        }
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * <p>Serves an extra area on <code>/areas/{id}</code>. It is not added to the <code>/areas</code> listing, which
+     * always holds the contents of <code>areas.csv</code>.</p>
+     */
+    public void putArea(int id, String state, String abbr) {
+        areas.put(id, toJson(id, state, abbr));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            Matcher matcher = AREA_PATH.matcher(exchange.getRequestURI().getPath());
+            if (!"GET".equals(exchange.getRequestMethod()) || !matcher.matches()) {
+                sendError(exchange, 404);
+                return;
+            }
+
+            if (matcher.group(1) != null) {
+                areaRequests.computeIfAbsent(Integer.parseInt(matcher.group(1)), id -> new AtomicLong()).incrementAndGet();
+            }
+
+            long delay;
+            boolean fail;
+            synchronized (random) {
+                delay = latencyMillis + (jitterMillis > 0 ? (long) (random.nextDouble() * jitterMillis) : 0);
+                fail = random.nextDouble() < errorRate;
+            }
+            if (delay > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (fail) {
+                errors.incrementAndGet();
+                sendError(exchange, 503);
+                return;
+            }
+
+            String body;
+            if (matcher.group(1) == null) {
+                body = allAreas;
+            } else {
+                body = areas.get(Integer.parseInt(matcher.group(1)));
+                if (body == null) {
+                    sendError(exchange, 404);
+                    return;
+                }
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * <p>Answers with an empty error response and closes the connection, as the JDK server does not always keep it
+     * open after one, and a client reusing it would fail its next request for reasons of its own.</p>
+     */
+    private static void sendError(HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set("Connection", "close");
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    /**
+     * <p>Reads <code>areas.csv</code> into a map of area code to the JSON representation of its Area.</p>
+     */
+    private static Map<Integer, String> loadAreas() {
+        Map<Integer, String> areas = new TreeMap<>();
+        InputStream in = AreaServiceStub.class.getResourceAsStream("/areas.csv");
+        if (in == null) {
+            throw new IllegalStateException("areas.csv not found on the classpath");
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                int id = Integer.parseInt(fields[0].trim());
+                areas.put(id, toJson(id, fields[1].trim(), fields[2].trim()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return areas;
+    }
+
+    private static String toJson(int id, String state, String abbr) {
+        return "{\"id\":" + id + ",\"state\":\"" + state + "\",\"abbr\":\"" + abbr + "\"}";
+    }
+
+    /**
+     * <p>Runs the stub until the process is killed.</p>
+     *
+     * <p>Configured with the system properties <code>area.stub.port</code> (default 8089),
+     * <code>area.stub.latency</code> and <code>area.stub.jitter</code> in milliseconds (default 0),
+     * <code>area.stub.error-rate</code> (default 0) and <code>area.stub.seed</code> (default 42).</p>
+     */
+    public static void main(String[] args) {
+        AreaServiceStub stub = new AreaServiceStub(
+                Long.getLong("area.stub.latency", 0),
+                Long.getLong("area.stub.jitter", 0),
+                Double.parseDouble(System.getProperty("area.stub.error-rate", "0")),
+                Long.getLong("area.stub.seed", 42))
+                .start(Integer.getInteger("area.stub.port", 8089));
+        Runtime.getRuntime().addShutdownHook(new Thread(stub::stop));
+        System.out.println("AreaServiceStub listening on " + stub.getUrl());
+    }
+}
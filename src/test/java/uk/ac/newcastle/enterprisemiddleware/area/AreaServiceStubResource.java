@@ -0,0 +1,51 @@
+package uk.ac.newcastle.enterprisemiddleware.area;
+
+import io.quarkus.test.common.QuarkusTestResourceLifecycleManager;
+
+import java.util.Map;
+
+/**
+ * <p>Starts an {@link AreaServiceStub} on a free port for the duration of the tests and points the area-api rest client
+ * at it, so the tests do not depend on the remote upstream.</p>
+ *
+ * <p>The stub can be tuned with the <code>latency</code>, <code>jitter</code>, <code>error-rate</code> and
+ * <code>seed</code> init args of <code>@QuarkusTestResource</code>; by default it answers immediately and never fails.</p>
+ *
+ * <p>Tests that need to control or inspect the stub get it in a field annotated with {@link InjectAreaServiceStub}.</p>
+ */
+public class AreaServiceStubResource implements QuarkusTestResourceLifecycleManager {
+
+    private long latency;
+    private long jitter;
+    private double errorRate;
+    private long seed;
+
+    private AreaServiceStub stub;
+
+    @Override
+    public void init(Map<String, String> initArgs) {
+        latency = Long.parseLong(initArgs.getOrDefault("latency", "0"));
+        jitter = Long.parseLong(initArgs.getOrDefault("jitter", "0"));
+        errorRate = Double.parseDouble(initArgs.getOrDefault("error-rate", "0"));
+        seed = Long.parseLong(initArgs.getOrDefault("seed", "42"));
+    }
+
+    @Override
+    public Map<String, String> start() {
+        stub = new AreaServiceStub(latency, jitter, errorRate, seed).start(0);
+        return Map.of("quarkus.rest-client.area-api.url", stub.getUrl());
+    }
+
+    @Override
+    public void inject(TestInjector testInjector) {
+        testInjector.injectIntoFields(stub,
+                new TestInjector.AnnotatedAndMatchesType(InjectAreaServiceStub.class, AreaServiceStub.class));
+    }
+
+    @Override
+    public void stop() {
+        if (stub != null) {
+            stub.stop();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package uk.ac.newcastle.enterprisemiddleware.area;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.smallrye.faulttolerance.api.CircuitBreakerMaintenance;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.faulttolerance.exceptions.CircuitBreakerOpenException;
+import org.junit.jupiter.api.*;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <p>Exercises the area code cache against the {@link AreaServiceStub}.</p>
+ *
+ * <p>The codes used are above {@link AreaTable#MAX_CODE}, so they are never answered by the preloaded table and every
+ * lookup goes through the caches. Each test uses its own codes, as the caches live as long as the application.</p>
+ *
+ * <p>Cached Areas expire after a second, so the tests of the stale fallback can wait for an entry to expire.</p>
+ */
+@QuarkusTest
+@TestProfile(CachedAreaServiceIntegrationTest.ShortTtl.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@QuarkusTestResource(H2DatabaseTestResource.class)
+@QuarkusTestResource(AreaServiceStubResource.class)
+class CachedAreaServiceIntegrationTest {
+
+    public static class ShortTtl implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of("area.cache.ttl", "PT" + TTL_MILLIS / 1000 + "S");
+        }
+    }
+
+    private static final long TTL_MILLIS = 1000;
+
+    // Just above the 2 second budget of GuardedAreaService
+    private static final long SLOW_MILLIS = 2500;
+
+    @Inject
+    CachedAreaService areaService;
+
+    @Inject
+    CircuitBreakerMaintenance circuitBreakers;
+
+    @InjectAreaServiceStub
+    AreaServiceStub stub;
+
+    @AfterEach
+    void resetUpstream() {
+        stub.setLatency(0);
+        stub.setErrorRate(0);
+        // Tests in other classes share the application, and with it the breaker
+        circuitBreakers.reset(GuardedAreaService.CIRCUIT_BREAKER);
+    }
+
+    @Test
+    @Order(1)
+    public void testRepeatedLookupIsCached() {
+        stub.putArea(990, "Test State", "TS");
+        CacheStats before = areaService.stats();
+
+        assertEquals("Test State", areaService.getAreaById(990).getState());
+        assertEquals("Test State", areaService.getAreaById(990).getState());
+
+        CacheStats after = areaService.stats();
+        assertEquals(1, stub.getRequestCount(990));
+        assertEquals(1, after.missCount() - before.missCount());
+        assertEquals(1, after.hitCount() - before.hitCount());
+    }
+
+    @Test
+    @Order(2)
+    public void testUnknownCodeIsNegativelyCached() {
+        CacheStats before = areaService.unknownStats();
+
+        for (int i = 0; i < 5; i++) {
+            assertThrows(InvalidAreaCodeException.class, () -> areaService.getAreaById(991));
+        }
+
+        assertEquals(1, stub.getRequestCount(991));
+        assertEquals(4, areaService.unknownStats().hitCount() - before.hitCount());
+    }
+
+    @Test
+    @Order(3)
+    public void testConcurrentLookupsAreCoalesced() {
+        stub.putArea(992, "Test State", "TS");
+        stub.setLatency(300);
+
+        List<Uni<Area>> lookups = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            lookups.add(areaService.getAreaByIdAsync(992));
+        }
+        List<Area> areas = Uni.join().all(lookups).andFailFast().await().atMost(Duration.ofSeconds(5));
+
+        assertEquals(10, areas.size());
+        assertTrue(areas.stream().allMatch(area -> "Test State".equals(area.getState())));
+        assertEquals(1, stub.getRequestCount(992));
+    }
+
+    @Test
+    @Order(4)
+    public void testFailedLookupIsRetried() {
+        stub.putArea(997, "Test State", "TS");
+        stub.setErrorRate(1);
+
+        assertThrows(AreaServiceUnavailableException.class,
+                () -> areaService.getAreaByIdAsync(997).await().atMost(Duration.ofSeconds(5)));
+
+        stub.setErrorRate(0);
+
+        Area area = areaService.getAreaByIdAsync(997).await().atMost(Duration.ofSeconds(5));
+        assertEquals("Test State", area.getState());
+        assertEquals(2, stub.getRequestCount(997));
+    }
+
+    @Test
+    @Order(5)
+    public void testTimeoutServesLastKnownArea() throws InterruptedException {
+        stub.putArea(993, "Test State", "TS");
+        areaService.getAreaById(993);
+        Thread.sleep(TTL_MILLIS + 500);
+
+        stub.setLatency(SLOW_MILLIS);
+
+        assertEquals("Test State", areaService.getAreaById(993).getState());
+        assertEquals(2, stub.getRequestCount(993));
+    }
+
+    @Test
+    @Order(6)
+    public void testOpenCircuitServesLastKnownArea() throws InterruptedException {
+        stub.putArea(994, "Test State", "TS");
+        stub.putArea(995, "Other State", "OS");
+        areaService.getAreaById(994);
+        Thread.sleep(TTL_MILLIS + 500);
+
+        // 995 has never been resolved, so every failure reaches the upstream until the breaker opens
+        stub.setErrorRate(1);
+        boolean open = false;
+        for (int i = 0; i < 30 && !open; i++) {
+            AreaServiceUnavailableException e = assertThrows(AreaServiceUnavailableException.class,
+                    () -> areaService.getAreaById(995));
+            open = e.getCause() instanceof CircuitBreakerOpenException;
+        }
+        assertTrue(open, "The circuit breaker did not open");
+
+        long requests = stub.getRequestCount(994);
+        assertEquals("Test State", areaService.getAreaById(994).getState());
+        assertEquals(requests, stub.getRequestCount(994));
+
+        assertThrows(AreaServiceUnavailableException.class, () -> areaService.getAreaById(996));
+        assertEquals(0, stub.getRequestCount(996));
+    }
+}
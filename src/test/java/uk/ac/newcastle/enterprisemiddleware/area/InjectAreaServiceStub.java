@@ -0,0 +1,15 @@
+package uk.ac.newcastle.enterprisemiddleware.area;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>Marks a test field of type {@link AreaServiceStub} to be set to the stub started by
+ * {@link AreaServiceStubResource}.</p>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface InjectAreaServiceStub {
+}
@@ -0,0 +1,166 @@
+package uk.ac.newcastle.enterprisemiddleware.contact;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.common.http.TestHTTPEndpoint;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.http.ContentType;
+import io.smallrye.faulttolerance.api.CircuitBreakerMaintenance;
+import org.junit.jupiter.api.*;
+import uk.ac.newcastle.enterprisemiddleware.area.AreaServiceStub;
+import uk.ac.newcastle.enterprisemiddleware.area.AreaServiceStubResource;
+import uk.ac.newcastle.enterprisemiddleware.area.GuardedAreaService;
+import uk.ac.newcastle.enterprisemiddleware.area.InjectAreaServiceStub;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManagerFactory;
+import java.util.Calendar;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static io.restassured.RestAssured.given;
+import static io.restassured.RestAssured.when;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <p>Exercises the asynchronous enrichment mode, where Contacts are written without their state and the
+ * {@link ContactEnrichmentService} fills it in afterwards.</p>
+ *
+ * <p>The area codes used are missing from the stub's listing, so they are never preloaded and their state can only come
+ * from a lookup made after the Contact has been written.</p>
+ */
+@QuarkusTest
+@TestProfile(ContactEnrichmentIntegrationTest.AsyncEnrichment.class)
+@TestHTTPEndpoint(ContactRestService.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@QuarkusTestResource(H2DatabaseTestResource.class)
+@QuarkusTestResource(AreaServiceStubResource.class)
+class ContactEnrichmentIntegrationTest {
+
+    public static class AsyncEnrichment implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of("contact.enrichment.async", "true",
+                    "contact.enrichment.max-attempts", String.valueOf(MAX_ATTEMPTS),
+                    "contact.enrichment.initial-backoff", "PT" + BACKOFF_MILLIS / 1000 + "S");
+        }
+    }
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final long BACKOFF_MILLIS = 2000;
+
+    // Long enough for several runs of the scheduled enrichment, which runs every second, and for the retries of a
+    // failing lookup, which wait 2 then 4 seconds
+    private static final long WAIT_MILLIS = 15000;
+
+    @Inject
+    ContactEnrichmentService enrichmentService;
+
+    @Inject
+    CircuitBreakerMaintenance circuitBreakers;
+
+    @Inject
+    EntityManagerFactory entityManagerFactory;
+
+    @InjectAreaServiceStub
+    AreaServiceStub stub;
+
+    @AfterEach
+    void resetUpstream() {
+        stub.setErrorRate(0);
+        circuitBreakers.reset(GuardedAreaService.CIRCUIT_BREAKER);
+    }
+
+    @Test
+    @Order(1)
+    public void testStateIsFilledInAfterCreation() throws InterruptedException {
+        stub.putArea(221, "Test State", "TS");
+
+        long id = createContact("enriched@email.com", "(221) 123-4567");
+
+        waitFor(() -> "Test State".equals(getState(id)));
+        assertEquals(1, stub.getRequestCount(221));
+        assertEquals(0, enrichmentService.getPendingCount());
+    }
+
+    @Test
+    @Order(2)
+    public void testFailingLookupIsRetriedWithBackoffThenGivenUp() throws InterruptedException {
+        stub.putArea(222, "Test State", "TS");
+        stub.setErrorRate(1);
+
+        long id = createContact("unenriched@email.com", "(222) 123-4567");
+
+        // The first retry waits for the backoff, even though the enrichment runs every second
+        waitFor(() -> stub.getRequestCount(222) == 1);
+        Thread.sleep(BACKOFF_MILLIS - 500);
+        assertEquals(1, stub.getRequestCount(222));
+
+        waitFor(() -> stub.getRequestCount(222) == MAX_ATTEMPTS);
+        waitFor(() -> enrichmentService.getPendingCount() == 0);
+
+        // Give the enrichment a couple more runs to show it has stopped asking
+        Thread.sleep(2500);
+        assertEquals(MAX_ATTEMPTS, stub.getRequestCount(222));
+        assertNull(getState(id));
+    }
+
+    @Test
+    @Order(3)
+    public void testEnrichmentOnlyEvictsUpdatedContacts() throws InterruptedException {
+        stub.putArea(223, "Test State", "TS");
+        stub.putArea(224, "Other State", "OS");
+
+        long cached = createContact("cached@email.com", "(223) 123-4567");
+        waitFor(() -> "Test State".equals(getState(cached)));
+        // Read it once more, so that it is back in the cache after its own enrichment
+        getState(cached);
+        assertTrue(entityManagerFactory.getCache().contains(Contact.class, cached));
+
+        long enriched = createContact("evicted@email.com", "(224) 123-4567");
+        waitFor(() -> "Other State".equals(getState(enriched)));
+
+        assertTrue(entityManagerFactory.getCache().contains(Contact.class, cached));
+    }
+
+    private long createContact(String email, String phoneNumber) {
+        Contact contact = new Contact();
+        contact.setFirstName("Async");
+        contact.setLastName("Account");
+        contact.setEmail(email);
+        contact.setBirthDate(Calendar.getInstance().getTime());
+        contact.setPhoneNumber(phoneNumber);
+
+        return given().
+                contentType(ContentType.JSON).
+                body(contact).
+        when().
+                post().
+        then().
+                statusCode(201).
+                body("state", nullValue()).
+                extract().jsonPath().getLong("id");
+    }
+
+    private String getState(long id) {
+        return when().
+                get(String.valueOf(id)).
+        then().
+                statusCode(200).
+                extract().jsonPath().getString("state");
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the enrichment");
+            Thread.sleep(100);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package uk.ac.newcastle.enterprisemiddleware.contact;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.common.http.TestHTTPEndpoint;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusMock;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.http.ContentType;
+import org.junit.jupiter.api.Test;
+import uk.ac.newcastle.enterprisemiddleware.area.AreaServiceStubResource;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * <p>Exercises the bulk Contact import with batches of two Contacts, so that a request spans several transactions.</p>
+ */
+@QuarkusTest
+@TestProfile(ContactImportIntegrationTest.SmallBatches.class)
+@TestHTTPEndpoint(ContactRestService.class)
+@QuarkusTestResource(H2DatabaseTestResource.class)
+@QuarkusTestResource(AreaServiceStubResource.class)
+class ContactImportIntegrationTest {
+
+    public static class SmallBatches implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of("contact.import.batch-size", "2");
+        }
+    }
+
+    @Test
+    public void testFailedBatchLeavesEarlierBatchesCommitted() {
+        // Let every Contact through validation, so the duplicate email in the second batch is only caught by the
+        // database, as if a concurrent write had taken it
+        QuarkusMock.installMockForType(new ContactValidator() {
+            @Override
+            Map<Integer, Map<String, String>> validateBatch(List<Contact> contacts) {
+                return new HashMap<>();
+            }
+        }, ContactValidator.class);
+
+        String body = "[" +
+                "{\"firstName\":\"Batch\",\"lastName\":\"One\",\"email\":\"batch1@email.com\",\"phoneNumber\":\"(202) 123-4567\",\"birthDate\":\"1990-01-01\"}," +
+                "{\"firstName\":\"Batch\",\"lastName\":\"Two\",\"email\":\"batch2@email.com\",\"phoneNumber\":\"(202) 123-4567\",\"birthDate\":\"1990-01-01\"}," +
+                "{\"firstName\":\"Batch\",\"lastName\":\"Three\",\"email\":\"batch3@email.com\",\"phoneNumber\":\"(202) 123-4567\",\"birthDate\":\"1990-01-01\"}," +
+                "{\"firstName\":\"Batch\",\"lastName\":\"Four\",\"email\":\"batch3@email.com\",\"phoneNumber\":\"(202) 123-4567\",\"birthDate\":\"1990-01-01\"}" +
+                "]";
+
+        given().
+                contentType(ContentType.JSON).
+                body(body).
+        when().
+                post("/import").
+        then().
+                statusCode(200).
+                body("imported", equalTo(2)).
+                body("rejected", equalTo(2)).
+                body("errors[0].index", equalTo(2)).
+                body("errors[0].reasons.batch", containsString("could not be written")).
+                body("errors[1].index", equalTo(3));
+
+        assertEquals(1, findByName("One").length);
+        assertEquals(1, findByName("Two").length);
+        // The whole second batch is rolled back, including the Contact that was fine on its own
+        assertEquals(0, findByName("Three").length);
+        assertEquals(0, findByName("Four").length);
+    }
+
+    private Contact[] findByName(String lastName) {
+        return given().
+                queryParam("firstname", "Batch").
+                queryParam("lastname", lastName).
+        when().
+                get().
+        then().
+                statusCode(200).
+                extract().as(Contact[].class);
+    }
+}
@@ -7,12 +7,15 @@ import io.quarkus.test.junit.QuarkusTest;
 import io.restassured.http.ContentType;
 import io.restassured.response.Response;
 import org.junit.jupiter.api.*;
+import uk.ac.newcastle.enterprisemiddleware.area.AreaServiceStubResource;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Calendar;
 
 import static io.restassured.RestAssured.given;
 import static io.restassured.RestAssured.when;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -20,6 +23,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 @TestHTTPEndpoint(ContactRestService.class)
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
 @QuarkusTestResource(H2DatabaseTestResource.class)
+@QuarkusTestResource(AreaServiceStubResource.class)
 class ContactRestServiceIntegrationTest {
 
     private static Contact contact;
@@ -70,6 +74,33 @@ class ContactRestServiceIntegrationTest {
 
     @Test
     @Order(3)
+    public void testCanFilterContactsByName() {
+        Contact[] result = given().
+                queryParam("firstname", contact.getFirstName()).
+                queryParam("lastname", contact.getLastName()).
+        when().
+                get().
+        then().
+                statusCode(200).
+                extract().as(Contact[].class);
+
+        assertEquals(1, result.length);
+        assertEquals(contact.getEmail(), result[0].getEmail());
+
+        result = given().
+                queryParam("firstname", contact.getFirstName()).
+                queryParam("lastname", "Nobody").
+        when().
+                get().
+        then().
+                statusCode(200).
+                extract().as(Contact[].class);
+
+        assertEquals(0, result.length);
+    }
+
+    @Test
+    @Order(4)
     public void testDuplicateEmailCausesError() {
         given().
                 contentType(ContentType.JSON).
@@ -82,7 +113,27 @@ class ContactRestServiceIntegrationTest {
     }
 
     @Test
-    @Order(4)
+    @Order(5)
+    public void testUnknownAreaCodeCausesError() {
+        Contact unknownArea = new Contact();
+        unknownArea.setFirstName("Test");
+        unknownArea.setLastName("Account");
+        unknownArea.setEmail("unknown.area@email.com");
+        unknownArea.setBirthDate(Calendar.getInstance().getTime());
+        unknownArea.setPhoneNumber("(280) 123-4567");
+
+        given().
+                contentType(ContentType.JSON).
+                body(unknownArea).
+        when().
+                post().
+        then().
+                statusCode(400).
+                body("reasons.area_code", containsString("not recognised"));
+    }
+
+    @Test
+    @Order(6)
     public void testCanDeleteContact() {
         Response response = when().
                 get().
@@ -97,4 +148,87 @@ class ContactRestServiceIntegrationTest {
         then().
                 statusCode(204);
     }
-}
\ No newline at end of file
+
+    @Test
+    @Order(7)
+    public void testCanImportContacts() {
+        String body = "[" +
+                "{\"firstName\":\"Bulk\",\"lastName\":\"One\",\"email\":\"bulk1@email.com\",\"phoneNumber\":\"(212) 123-4567\",\"birthDate\":\"1990-01-01\"}," +
+                "{\"firstName\":\"Bulk\",\"lastName\":\"Two\",\"email\":\"bulk1@email.com\",\"phoneNumber\":\"(212) 123-4567\",\"birthDate\":\"1990-01-01\"}," +
+                "{\"firstName\":\"Bulk\",\"lastName\":\"Three\",\"email\":\"bulk3@email.com\",\"phoneNumber\":\"(280) 123-4567\",\"birthDate\":\"1990-01-01\"}" +
+                "]";
+
+        given().
+                contentType(ContentType.JSON).
+                body(body).
+        when().
+                post("/import").
+        then().
+                statusCode(200).
+                body("imported", equalTo(1)).
+                body("rejected", equalTo(2)).
+                body("errors[0].index", equalTo(1)).
+                body("errors[0].reasons.email", containsString("email is already used")).
+                body("errors[1].index", equalTo(2)).
+                body("errors[1].reasons.area_code", containsString("not recognised"));
+
+        String ndjson =
+                "{\"firstName\":\"Bulk\",\"lastName\":\"Four\",\"email\":\"bulk4@email.com\",\"phoneNumber\":\"(202) 123-4567\",\"birthDate\":\"1990-01-01\"}\n" +
+                "{\"firstName\":\"Bulk\",\"lastName\":\"Five\",\"email\":\"bulk1@email.com\",\"phoneNumber\":\"(202) 123-4567\",\"birthDate\":\"1990-01-01\"}\n";
+
+        given().
+                contentType("application/x-ndjson").
+                body(ndjson.getBytes(StandardCharsets.UTF_8)).
+        when().
+                post("/import").
+        then().
+                statusCode(200).
+                body("imported", equalTo(1)).
+                body("rejected", equalTo(1));
+
+        Contact[] result = given().
+                queryParam("firstname", "Bulk").
+                queryParam("lastname", "Four").
+        when().
+                get().
+        then().
+                statusCode(200).
+                extract().as(Contact[].class);
+
+        assertEquals(1, result.length);
+        assertEquals("District of Columbia", result[0].getState());
+    }
+
+    @Test
+    @Order(8)
+    public void testMalformedContactStopsImport() {
+        String ndjson =
+                "{\"firstName\":\"Bulk\",\"lastName\":\"Six\",\"email\":\"bulk6@email.com\",\"phoneNumber\":\"(202) 123-4567\",\"birthDate\":\"1990-01-01\"}\n" +
+                "{\"firstName\":\"Bulk\",\"lastName\":\"Seven\",\"email\":\"bulk6@email.com\",\"phoneNumber\":\"(202) 123-4567\",\"birthDate\":\"1990-01-01\"}\n" +
+                "{\"firstName\":\"Bulk\",\"lastName\":\"Eight\",\"email\":\"bulk8@email.com\",\"phoneNumber\":\"(202) 123-4567\",\"birthDate\":\"1990-01-01\"}\n" +
+                "{\"firstName\":\"Bulk\",\"lastName\":\"Nine\",\"email\":\n";
+
+        given().
+                contentType("application/x-ndjson").
+                body(ndjson.getBytes(StandardCharsets.UTF_8)).
+        when().
+                post("/import").
+        then().
+                statusCode(400).
+                body("reasons.index", equalTo("3")).
+                body("reasons.imported", equalTo("2")).
+                body("reasons.rejected", equalTo("1")).
+                body("reasons.body", containsString("at index 3"));
+
+        Contact[] result = given().
+                queryParam("firstname", "Bulk").
+                queryParam("lastname", "Eight").
+        when().
+                get().
+        then().
+                statusCode(200).
+                extract().as(Contact[].class);
+
+        assertEquals(1, result.length);
+    }
+}
@@ -0,0 +1,45 @@
+package uk.ac.newcastle.enterprisemiddleware.restaurant;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RestaurantLeaderboardTest {
+
+    @Test
+    public void testRemovalBeforeItsAdditionAddsUp() {
+        RestaurantLeaderboard leaderboard = new RestaurantLeaderboard();
+
+        // A Review of 4 is added then removed, but the removal is handled first
+        leaderboard.onRatingChanged(RestaurantRatingChanged.delta(1L, -1, -4));
+        assertTrue(leaderboard.top(10, 1).isEmpty());
+
+        leaderboard.onRatingChanged(RestaurantRatingChanged.delta(1L, 1, 5));
+        assertTrue(leaderboard.top(10, 1).isEmpty());
+
+        leaderboard.onRatingChanged(RestaurantRatingChanged.delta(1L, 1, 4));
+
+        List<RestaurantLeaderboard.Entry> top = leaderboard.top(10, 1);
+        assertEquals(1, top.size());
+        assertEquals(1, top.get(0).getReviewCount());
+        assertEquals(5.0, top.get(0).getAverage());
+    }
+
+    @Test
+    public void testRestaurantsAreRankedByAverage() {
+        RestaurantLeaderboard leaderboard = new RestaurantLeaderboard();
+
+        leaderboard.onRatingChanged(RestaurantRatingChanged.delta(1L, 2, 6));
+        leaderboard.onRatingChanged(RestaurantRatingChanged.delta(2L, 1, 5));
+        leaderboard.onRatingChanged(RestaurantRatingChanged.delta(3L, 1, 1));
+        leaderboard.onRatingChanged(RestaurantRatingChanged.deleted(3L));
+
+        List<RestaurantLeaderboard.Entry> top = leaderboard.top(10, 1);
+        assertEquals(2, top.size());
+        assertEquals(2L, top.get(0).getRestaurantId());
+        assertEquals(1L, top.get(1).getRestaurantId());
+    }
+}
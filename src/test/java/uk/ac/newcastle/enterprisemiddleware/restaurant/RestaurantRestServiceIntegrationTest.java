@@ -7,12 +7,16 @@ import io.quarkus.test.junit.QuarkusTest;
 import io.restassured.http.ContentType;
 import io.restassured.response.Response;
 import org.junit.jupiter.api.*;
+import uk.ac.newcastle.enterprisemiddleware.util.KeysetPage;
 
 import java.util.Calendar;
 
 import static io.restassured.RestAssured.given;
 import static io.restassured.RestAssured.when;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.contains;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -63,6 +67,238 @@ class RestaurantRestServiceIntegrationTest {
 
     @Test
     @Order(3)
+    public void testCanPageRestaurants() {
+        Response first = given().
+                queryParam("limit", 2).
+        when().
+                get().
+        then().
+                statusCode(200).
+                extract().response();
+
+        Restaurant[] page = first.body().as(Restaurant[].class);
+        assertEquals(2, page.length);
+        assertEquals("TestRestaurantA", page[0].getName());
+        assertEquals("TestRestaurantB", page[1].getName());
+
+        String link = first.header("Link");
+        assertTrue(link != null && link.contains("rel=\"next\""), "No next link on first page");
+        String next = link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+
+        Response second = when().
+                get(next).
+        then().
+                statusCode(200).
+                extract().response();
+
+        page = second.body().as(Restaurant[].class);
+        assertEquals(1, page.length);
+        assertEquals(restaurant.getName(), page[0].getName());
+        assertEquals(null, second.header("Link"));
+
+        given().
+                queryParam("after", "not-a-cursor").
+        when().
+                get().
+        then().
+                statusCode(400);
+    }
+
+    @Test
+    @Order(4)
+    public void testCanGetRestaurantRating() {
+        when().
+                get("/1/rating").
+        then().
+                statusCode(200).
+                body("restaurantId", equalTo(1)).
+                body("reviewCount", equalTo(1)).
+                body("ratingSum", equalTo(5)).
+                body("average", equalTo(5.0f)).
+                body("histogram", contains(0, 0, 0, 0, 0, 1));
+
+        // A new Restaurant starts with no Reviews
+        Response response = given().
+                queryParam("after", KeysetPage.encode("TestRestaurantB", 2)).
+        when().
+                get().
+        then().
+                statusCode(200).
+                extract().response();
+
+        when().
+                get("/" + response.path("[0].id") + "/rating").
+        then().
+                statusCode(200).
+                body("reviewCount", equalTo(0)).
+                body("average", nullValue());
+
+        when().
+                get("/999999/rating").
+        then().
+                statusCode(404);
+    }
+
+    @Test
+    @Order(5)
+    public void testCanGetTopRestaurants() {
+        // Only TestRestaurantA has a Review so far
+        given().
+                queryParam("n", 5).
+        when().
+                get("/top").
+        then().
+                statusCode(200).
+                body("size()", equalTo(1)).
+                body("[0].restaurantId", equalTo(1)).
+                body("[0].reviewCount", equalTo(1)).
+                body("[0].average", equalTo(5.0f));
+
+        given().
+                queryParam("minReviews", 2).
+        when().
+                get("/top").
+        then().
+                statusCode(200).
+                body("size()", equalTo(0));
+
+        given().
+                queryParam("n", 0).
+        when().
+                get("/top").
+        then().
+                statusCode(400);
+    }
+
+    @Test
+    @Order(6)
+    public void testCanGetRestaurantReviews() {
+        Response response = given().
+                queryParam("limit", 10).
+        when().
+                get("/1/reviews").
+        then().
+                statusCode(200).
+                body("size()", equalTo(1)).
+                body("[0].rating", equalTo(5)).
+                body("[0].user.email", equalTo("alice@email.com")).
+                extract().response();
+
+        assertEquals(null, response.header("Link"));
+
+        when().
+                get("/999999/reviews").
+        then().
+                statusCode(404);
+    }
+
+    @Test
+    @Order(7)
+    public void testCanGetRestaurantIfModified() {
+        String etag = when().
+                get("/2").
+        then().
+                statusCode(200).
+                body("name", equalTo("TestRestaurantB")).
+                extract().header("ETag");
+
+        assertEquals("\"2-0\"", etag);
+
+        given().
+                header("If-None-Match", etag).
+        when().
+                get("/2").
+        then().
+                statusCode(304);
+
+        Restaurant updated = new Restaurant();
+        updated.setId(2L);
+        updated.setName("TestRestaurantB");
+        updated.setPhoneNumber("09876543210");
+        updated.setPostcode("XY987A");
+
+        given().
+                contentType(ContentType.JSON).
+                header("If-Match", etag).
+                body(updated).
+        when().
+                put("/2").
+        then().
+                statusCode(200);
+
+        given().
+                header("If-None-Match", etag).
+        when().
+                get("/2").
+        then().
+                statusCode(200).
+                header("ETag", equalTo("\"2-1\"")).
+                body("postcode", equalTo("XY987A"));
+    }
+
+    @Test
+    @Order(8)
+    public void testStaleUpdateIsRejected() {
+        Restaurant updated = new Restaurant();
+        updated.setId(2L);
+        updated.setName("TestRestaurantB");
+        updated.setPhoneNumber("09876543210");
+        updated.setPostcode("XY987B");
+
+        // Restaurant 2 is at version 1 since the previous test
+        given().
+                contentType(ContentType.JSON).
+                header("If-Match", "\"2-0\"").
+                body(updated).
+        when().
+                put("/2").
+        then().
+                statusCode(412).
+                body("reasons.version", containsString("changed by someone else"));
+
+        given().
+                contentType(ContentType.JSON).
+                header("If-Match", "\"2-1\"").
+                body(updated).
+        when().
+                put("/2").
+        then().
+                statusCode(200).
+                header("ETag", equalTo("\"2-2\"")).
+                body("postcode", equalTo("XY987B"));
+
+        // An update must say which version it is based on
+        given().
+                contentType(ContentType.JSON).
+                body(updated).
+        when().
+                put("/2").
+        then().
+                statusCode(428);
+
+        updated.setId(999999L);
+        updated.setPhoneNumber("09876543299");
+        given().
+                contentType(ContentType.JSON).
+                header("If-Match", "\"999999-0\"").
+                body(updated).
+        when().
+                put("/999999").
+        then().
+                statusCode(412);
+
+        given().
+                contentType(ContentType.JSON).
+                header("If-Match", "*").
+                body(updated).
+        when().
+                put("/999999").
+        then().
+                statusCode(404);
+    }
+
+    @Test
+    @Order(9)
     public void testDuplicatePhoneNumberCausesError() {
         given().
                 contentType(ContentType.JSON).
@@ -75,7 +311,7 @@ class RestaurantRestServiceIntegrationTest {
     }
 
     @Test
-    @Order(4)
+    @Order(10)
     public void testCanDeleteRestaurant() {
         Response response = when().
                 get().
@@ -90,12 +326,17 @@ class RestaurantRestServiceIntegrationTest {
                 then().
                 statusCode(204);
 
+        when().
+                delete(result[2].getId().toString()).
+                then().
+                statusCode(404);
+
         // Cascade Deletion finished
     }
 
 
     @Test
-    @Order(5)
+    @Order(11)
     public void testInvalidRestaurantCreation() {
         Restaurant invalidRestaurant = new Restaurant();
         invalidRestaurant.setName("&^");            // Invalid name
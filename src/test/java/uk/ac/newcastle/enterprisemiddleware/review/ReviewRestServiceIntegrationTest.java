@@ -18,7 +18,10 @@ import java.util.Calendar;
 import static io.restassured.RestAssured.given;
 import static io.restassured.RestAssured.when;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @QuarkusTest
@@ -84,6 +87,55 @@ class ReviewRestServiceIntegrationTest {
 
     @Test
     @Order(3)
+    public void testCanGetCompactReviews() {
+        given().
+                queryParam("view", "compact").
+        when().
+                get().
+        then().
+                statusCode(200).
+                body("size()", equalTo(2)).
+                body("[0].userName", equalTo("TestUserAlice")).
+                body("[0].restaurantName", equalTo("TestRestaurantA")).
+                body("[0].user", nullValue());
+
+        given().
+                queryParam("view", "compact").
+        when().
+                get("/user/2").
+        then().
+                statusCode(200).
+                body("size()", equalTo(1)).
+                body("[0].restaurantId", equalTo(2));
+
+        given().
+                queryParam("view", "other").
+        when().
+                get().
+        then().
+                statusCode(400);
+    }
+
+    @Test
+    @Order(4)
+    public void testCanExportReviews() {
+        String body = when().
+                get("/export").
+                then().
+                statusCode(200).
+                contentType("application/x-ndjson").
+                extract().asString();
+
+        String[] lines = body.split("\n");
+        assertEquals(2, lines.length);
+        for (String line : lines) {
+            assertTrue(line.startsWith("{") && line.contains("\"user\"") && line.contains("\"restaurant\""),
+                    "Unexpected export line " + line);
+        }
+    }
+
+    @Test
+    @Order(5)
     public void testDuplicateReviewCausesError() {
         given().
                 contentType(ContentType.JSON).
@@ -96,7 +148,7 @@ class ReviewRestServiceIntegrationTest {
     }
 
     @Test
-    @Order(4)
+    @Order(6)
     public void testCanDeleteReview() {
         Response response = when().
                 get().
@@ -111,4 +163,103 @@ class ReviewRestServiceIntegrationTest {
                 then().
                 statusCode(204);
     }
+
+    @Test
+    @Order(7)
+    public void testEditingUserChangesReviewETag() {
+        User author = new User();
+        author.setName("ETagAuthor");
+        author.setEmail("etagauthor@email.com");
+        author.setPhoneNumber("01234567892");
+        author = given().
+                basePath("/users").
+                contentType(ContentType.JSON).
+                body(author).
+        when().
+                post().
+        then().
+                statusCode(201).
+                extract().as(User.class);
+
+        Review authored = new Review();
+        authored.setUser(author);
+        authored.setRestaurant(restaurantService.findById(1L));
+        authored.setReview("Tagged");
+        authored.setRating(3);
+        long id = given().
+                contentType(ContentType.JSON).
+                body(authored).
+        when().
+                post().
+        then().
+                statusCode(201).
+                extract().jsonPath().getLong("id");
+
+        String etag = when().
+                get("/" + id).
+        then().
+                statusCode(200).
+                extract().header("ETag");
+
+        given().
+                header("If-None-Match", etag).
+        when().
+                get("/" + id).
+        then().
+                statusCode(304);
+
+        // The Review itself is untouched, but the User embedded in it is not
+        String authorTag = given().
+                basePath("/users").
+        when().
+                get("/" + author.getId()).
+        then().
+                statusCode(200).
+                extract().header("ETag");
+        author.setName("ETagRenamed");
+        given().
+                basePath("/users").
+                contentType(ContentType.JSON).
+                header("If-Match", authorTag).
+                body(author).
+        when().
+                put("/" + author.getId()).
+        then().
+                statusCode(200);
+
+        String renamed = given().
+                header("If-None-Match", etag).
+        when().
+                get("/" + id).
+        then().
+                statusCode(200).
+                body("user.name", equalTo("ETagRenamed")).
+                extract().header("ETag");
+        assertNotEquals(etag, renamed);
+
+        // An update based on the latest copy is still accepted
+        Review update = given().
+        when().
+                get("/" + id).
+        then().
+                extract().as(Review.class);
+        update.setRating(4);
+        given().
+                contentType(ContentType.JSON).
+                header("If-Match", renamed).
+                body(update).
+        when().
+                put("/" + id).
+        then().
+                statusCode(200).
+                body("rating", equalTo(4));
+
+        // Leave the Users as the other tests expect them
+        given().
+                basePath("/users").
+        when().
+                delete("/" + author.getId()).
+        then().
+                statusCode(204);
+    }
 }
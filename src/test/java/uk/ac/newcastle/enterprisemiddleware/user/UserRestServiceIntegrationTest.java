@@ -7,12 +7,20 @@ import io.quarkus.test.junit.QuarkusTest;
 import io.restassured.http.ContentType;
 import io.restassured.response.Response;
 import org.junit.jupiter.api.*;
+import uk.ac.newcastle.enterprisemiddleware.restaurant.Restaurant;
+import uk.ac.newcastle.enterprisemiddleware.restaurant.RestaurantRatingStats;
+import uk.ac.newcastle.enterprisemiddleware.review.Review;
 
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.transaction.UserTransaction;
 import java.util.Calendar;
 
 import static io.restassured.RestAssured.given;
 import static io.restassured.RestAssured.when;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.contains;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -25,6 +33,12 @@ class UserRestServiceIntegrationTest {
 
     private static User user;
 
+    @Inject
+    EntityManager em;
+
+    @Inject
+    UserTransaction transaction;
+
     @BeforeAll
     static void setup() {
         user = new User();
@@ -116,5 +130,98 @@ class UserRestServiceIntegrationTest {
                 body("reasons.phoneNumber", containsString("Please use a vaild phoneNumber"));
     }
 
-}
+    @Test
+    @Order(6)
+    public void testDeletingUserUpdatesRatings() throws Exception {
+        User deleted = createUser("RatingDeleted", "ratingdeleted@email.com");
+        User kept = createUser("RatingKept", "ratingkept@email.com");
+        Restaurant tracked = createRestaurant("RatingTracked", "05550000001");
+        Restaurant untracked = createRestaurant("RatingUntracked", "05550000002");
+
+        createReview(deleted, tracked, 2);
+        createReview(deleted, untracked, 2);
+        createReview(kept, untracked, 4);
+
+        // As for a Restaurant created before the totals existed: they are rebuilt once the User's Reviews are gone
+        transaction.begin();
+        em.createNamedQuery(RestaurantRatingStats.DELETE_BY_RESTAURANT)
+                .setParameter("restaurantId", untracked.getId())
+                .executeUpdate();
+        transaction.commit();
+
+        when().
+                delete(deleted.getId().toString()).
+        then().
+                statusCode(204);
 
+        given().
+                basePath("/restaurants").
+        when().
+                get("/" + tracked.getId() + "/rating").
+        then().
+                statusCode(200).
+                body("reviewCount", equalTo(0)).
+                body("ratingSum", equalTo(0)).
+                body("histogram", contains(0, 0, 0, 0, 0, 0));
+
+        given().
+                basePath("/restaurants").
+        when().
+                get("/" + untracked.getId() + "/rating").
+        then().
+                statusCode(200).
+                body("reviewCount", equalTo(1)).
+                body("ratingSum", equalTo(4)).
+                body("histogram", contains(0, 0, 0, 0, 1, 0));
+    }
+
+    private static User createUser(String name, String email) {
+        User user = new User();
+        user.setName(name);
+        user.setEmail(email);
+        user.setPhoneNumber("01234567891");
+
+        return given().
+                contentType(ContentType.JSON).
+                body(user).
+        when().
+                post().
+        then().
+                statusCode(201).
+                extract().as(User.class);
+    }
+
+    private static Restaurant createRestaurant(String name, String phoneNumber) {
+        Restaurant restaurant = new Restaurant();
+        restaurant.setName(name);
+        restaurant.setPhoneNumber(phoneNumber);
+        restaurant.setPostcode("NE17RU");
+
+        return given().
+                basePath("/restaurants").
+                contentType(ContentType.JSON).
+                body(restaurant).
+        when().
+                post().
+        then().
+                statusCode(201).
+                extract().as(Restaurant.class);
+    }
+
+    private static void createReview(User user, Restaurant restaurant, int rating) {
+        Review review = new Review();
+        review.setUser(user);
+        review.setRestaurant(restaurant);
+        review.setReview("Fine");
+        review.setRating(rating);
+
+        given().
+                basePath("/reviews").
+                contentType(ContentType.JSON).
+                body(review).
+        when().
+                post().
+        then().
+                statusCode(201);
+    }
+}
@@ -0,0 +1,43 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.common.http.TestHTTPEndpoint;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.*;
+
+import static io.restassured.RestAssured.given;
+import static io.restassured.RestAssured.when;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+
+@QuarkusTest
+@TestHTTPEndpoint(CacheStatsRestService.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@QuarkusTestResource(H2DatabaseTestResource.class)
+class CacheStatsRestServiceIntegrationTest {
+
+    @Test
+    @Order(1)
+    public void testRepeatedReadIsServedFromCache() {
+        int hits = when().
+                get().
+        then().
+                statusCode(200).
+                extract().path("entities.Restaurant.hits");
+
+        // The first read may go to the database, the second one must be a cache hit
+        given().basePath("/restaurants").when().get("/1").then().statusCode(200);
+        given().basePath("/restaurants").when().get("/1").then().statusCode(200);
+
+        when().
+                get().
+        then().
+                statusCode(200).
+                body("entities.Restaurant.hits", greaterThan(hits)).
+                body("entities.Restaurant.size", greaterThanOrEqualTo(1)).
+                body("queries.hits", notNullValue()).
+                body("areas.hits", notNullValue());
+    }
+}
@@ -0,0 +1,44 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class LogTest {
+
+    @Test
+    public void testPlaceholdersAreFilledInOrder() {
+        assertEquals("Creating Ada Lovelace", Log.format("Creating {} {}", "Ada", "Lovelace"));
+        assertEquals("1 of 2: null", Log.format("{} of {}: {}", 1, 2, null));
+        assertEquals("No placeholders", Log.format("No placeholders"));
+    }
+
+    @Test
+    public void testMissingArgumentsKeepTheirPlaceholders() {
+        assertEquals("Area 201 in {}", Log.format("Area {} in {}", 201));
+        assertEquals("{} and {}", Log.format("{} and {}"));
+    }
+
+    @Test
+    public void testExtraArgumentsAreIgnored() {
+        assertEquals("Area 201", Log.format("Area {}", 201, "NJ", "New Jersey"));
+        assertEquals("Loaded", Log.format("Loaded", 320));
+    }
+
+    @Test
+    public void testTrailingThrowableIsThrownOnlyWithoutPlaceholder() {
+        Exception e = new IllegalStateException("boom");
+
+        assertSame(e, Log.thrown("Batch starting at {} rolled back", 0, e));
+        assertSame(e, Log.thrown("Could not load area codes", e));
+        assertEquals("Batch starting at 0 rolled back", Log.format("Batch starting at {} rolled back", 0, e));
+
+        assertNull(Log.thrown("Serving last known area {} after: {}", 201, e));
+        assertEquals("Serving last known area 201 after: " + e, Log.format("Serving last known area {} after: {}", 201, e));
+
+        assertNull(Log.thrown("Area {}", 201, "NJ"));
+        assertNull(Log.thrown("Area"));
+    }
+}